@@ -0,0 +1,64 @@
+import lexer.Scanner;
+import lexer.Token;
+import lexer.Tokeniser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Tokeniser throughput on an identifier-heavy input.
+ *
+ *   $ ant bench -Dbench=LexerBench
+ *
+ * An optional argument sets the number of generated lines (default 200000).
+ */
+public class LexerBench {
+
+    private static final String[] WORDS = {
+        "int", "counter", "while", "x_1", "struct", "node_ptr", "char", "total",
+        "return", "i", "sizeof", "buffer_len", "if", "else", "tmp", "void", "acc"
+    };
+
+    private static File generate(int lines) throws IOException {
+        File f = File.createTempFile("lexer-bench", ".c");
+        f.deleteOnExit();
+        try (PrintWriter w = new PrintWriter(f)) {
+            for (int l = 0; l < lines; l++) {
+                for (int k = 0; k < 8; k++) {
+                    w.print(WORDS[(l * 7 + k * 3) % WORDS.length]);
+                    w.print(k % 2 == 0 ? " " : " = ");
+                }
+                w.println(';');
+            }
+        }
+        return f;
+    }
+
+    private static int lex(File f) throws IOException {
+        Tokeniser tokeniser = new Tokeniser(new Scanner(f));
+        int n = 0;
+        for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken())
+            n++;
+        return n;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        File f = generate(lines);
+
+        // warm up
+        for (int i = 0; i < 5; i++)
+            lex(f);
+
+        int runs = 10;
+        int tokens = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            tokens = lex(f);
+        double secs = (System.nanoTime() - start) / 1e9 / runs;
+
+        System.out.printf("%d tokens, %.1f ms/run, %.2f Mtokens/s%n",
+            tokens, secs * 1e3, tokens / secs / 1e6);
+    }
+}
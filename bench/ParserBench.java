@@ -0,0 +1,79 @@
+import lexer.Scanner;
+import lexer.Tokeniser;
+import parser.Parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+
+/**
+ * Parser throughput on a file made almost entirely of top-level declarations,
+ * where telling variables, structs and functions apart leans on lookahead.
+ *
+ *   $ ant bench -Dbench=ParserBench
+ *
+ * An optional argument sets the number of generated declarations (default 50000).
+ */
+public class ParserBench {
+
+    private static File generate(int decls) throws IOException {
+        File f = File.createTempFile("parser-bench", ".c");
+        f.deleteOnExit();
+        // MiniC wants struct declarations first, then globals, then functions
+        int structs = decls / 4, vars = decls / 2, funs = decls - structs - vars;
+        try (PrintWriter w = new PrintWriter(f)) {
+            for (int d = 0; d < structs; d++)
+                w.println("struct s" + d + " { int a; char *b; struct s" + d + " *next; };");
+            for (int d = 0; d < vars; d++) {
+                switch (d % 4) {
+                    case 0:  w.println("struct s" + (d % structs) + " *p" + d + ";"); break;
+                    case 1:  w.println("int v" + d + "[16];"); break;
+                    case 2:  w.println("char *c" + d + ";"); break;
+                    default: w.println("struct s" + (d % structs) + " g" + d + ";"); break;
+                }
+            }
+            for (int d = 0; d < funs; d++)
+                w.println("int f" + d + "(int x, char *y) { return x; }");
+        }
+        return f;
+    }
+
+    private static void parse(File f) throws IOException {
+        Parser parser = new Parser(new Tokeniser(new Scanner(f)));
+        parser.parse();
+        if (parser.getErrorCount() != 0)
+            throw new IllegalStateException("benchmark input failed to parse");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int decls = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        File f = generate(decls);
+
+        // older parsers recursed once per declaration, give them room to be compared
+        Thread t = new Thread(null, () -> {
+            try {
+                run(f, decls);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "bench", 1L << 30);
+        t.start();
+        t.join();
+    }
+
+    private static void run(File f, int decls) throws IOException {
+        // warm up
+        for (int i = 0; i < 5; i++)
+            parse(f);
+
+        int runs = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            parse(f);
+        double secs = (System.nanoTime() - start) / 1e9 / runs;
+
+        System.out.printf("%d declarations, %.1f ms/run, %.0f kdecls/s%n",
+            decls, secs * 1e3, decls / secs / 1e3);
+    }
+}
@@ -0,0 +1,56 @@
+package jmh;
+
+import ast.Program;
+import gen.CodeGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * CodeGenerator.emitProgram: simplification, code generation, peephole and
+ * writing the assembly. The simplifier rewrites the tree, so every
+ * invocation gets freshly parsed and analysed programs, outside the
+ * measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeGenBenchmark {
+
+    @State(Scope.Thread)
+    public static class Analyzed {
+        List<Program> programs;
+        List<File> outputs;
+
+        @Setup(Level.Trial)
+        public void outputs(Inputs inputs) throws IOException {
+            outputs = inputs.outputs();
+        }
+
+        @Setup(Level.Invocation)
+        public void analyze(Inputs inputs) throws IOException {
+            programs = SemanticBenchmark.analyzeAll(inputs);
+        }
+    }
+
+    @Benchmark
+    public void emitProgram(Analyzed analyzed) throws IOException {
+        for (int k = 0; k < analyzed.programs.size(); k++)
+            new CodeGenerator().emitProgram(analyzed.programs.get(k), analyzed.outputs.get(k));
+    }
+}
@@ -0,0 +1,76 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import workload.WorkloadGenerator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The MiniC files a benchmark compiles, chosen by the input parameter:
+ *
+ *   tests            every program in tests/gen, which all get through code generation
+ *   synthetic-N      one program of N functions from workload.WorkloadGenerator, seed 1,
+ *                    to see how a pass scales
+ *
+ * Relative paths are resolved against the working directory, the checkout
+ * when run through "ant jmh".
+ */
+@State(Scope.Benchmark)
+public class Inputs {
+
+    @Param({"tests", "synthetic-100", "synthetic-1000"})
+    public String input;
+
+    public List<File> files;
+
+    private File generated;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        if (input.equals("tests")) {
+            File[] tests = new File("tests/gen").listFiles((dir, name) -> name.endsWith(".c"));
+            if (tests == null || tests.length == 0)
+                throw new IllegalStateException("no tests/gen/*.c below " + new File("").getAbsolutePath());
+            Arrays.sort(tests);
+            files = Arrays.asList(tests);
+        } else if (input.startsWith("synthetic-")) {
+            generated = File.createTempFile("jmh-synthetic", ".c");
+            WorkloadGenerator g = new WorkloadGenerator();
+            g.functions = Integer.parseInt(input.substring("synthetic-".length()));
+            try (Writer w = new BufferedWriter(new FileWriter(generated))) {
+                g.generate(w);
+            }
+            files = Arrays.asList(generated);
+        } else
+            throw new IllegalArgumentException("unknown input " + input);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        if (generated != null)
+            generated.delete();
+    }
+
+    // one file per input for the backend to write to
+    public List<File> outputs() throws IOException {
+        List<File> outputs = new ArrayList<File>();
+        for (int k = 0; k < files.size(); k++) {
+            File f = File.createTempFile("jmh-out", ".asm");
+            f.deleteOnExit();
+            outputs.add(f);
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,36 @@
+package jmh;
+
+import lexer.Scanner;
+import lexer.Token;
+import lexer.Tokeniser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Tokeniser throughput: every token of every input, reading the file included
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Benchmark
+    public int tokenise(Inputs inputs) throws IOException {
+        int n = 0;
+        for (File f : inputs.files) {
+            Tokeniser tokeniser = new Tokeniser(new Scanner(f));
+            for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken())
+                n++;
+        }
+        return n;
+    }
+}
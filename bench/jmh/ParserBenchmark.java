@@ -0,0 +1,50 @@
+package jmh;
+
+import ast.Program;
+import lexer.Scanner;
+import lexer.Tokeniser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import parser.Parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Parser.parse over every input, lexing included since the parser pulls its tokens
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Benchmark
+    public void parse(Inputs inputs, Blackhole bh) throws IOException {
+        for (File f : inputs.files)
+            bh.consume(parse(f));
+    }
+
+    static Program parse(File f) throws IOException {
+        Parser parser = new Parser(new Tokeniser(new Scanner(f)));
+        Program program = parser.parse();
+        if (parser.getErrorCount() != 0)
+            throw new IllegalStateException(f + " does not parse");
+        return program;
+    }
+
+    static List<Program> parseAll(Inputs inputs) throws IOException {
+        List<Program> programs = new ArrayList<Program>();
+        for (File f : inputs.files)
+            programs.add(parse(f));
+        return programs;
+    }
+}
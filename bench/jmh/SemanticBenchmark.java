@@ -0,0 +1,60 @@
+package jmh;
+
+import ast.Program;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sem.SemanticAnalyzer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * SemanticAnalyzer.analyze alone. Analysis decorates the tree, so every
+ * invocation gets freshly parsed programs, outside the measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SemanticBenchmark {
+
+    @State(Scope.Thread)
+    public static class Parsed {
+        List<Program> programs;
+
+        @Setup(Level.Invocation)
+        public void parse(Inputs inputs) throws IOException {
+            programs = ParserBenchmark.parseAll(inputs);
+        }
+    }
+
+    @Benchmark
+    public int analyze(Parsed parsed) {
+        int errors = 0;
+        for (Program p : parsed.programs)
+            errors += new SemanticAnalyzer().analyze(p);
+        if (errors != 0)
+            throw new IllegalStateException(errors + " semantic errors");
+        return errors;
+    }
+
+    static List<Program> analyzeAll(Inputs inputs) throws IOException {
+        List<Program> programs = ParserBenchmark.parseAll(inputs);
+        for (Program p : programs) {
+            if (new SemanticAnalyzer().analyze(p) != 0)
+                throw new IllegalStateException("input fails semantic analysis");
+        }
+        return programs;
+    }
+}
@@ -0,0 +1,426 @@
+package workload;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded generator of valid, type-correct MiniC programs (grammar/ebnf.txt)
+ * of any size, for stress tests and benchmark inputs. The same options and
+ * seed always give the same program.
+ *
+ *   $ ant build-bench
+ *   $ java -cp bin-bench workload.WorkloadGenerator -seed 7 -size 10M -o big.c
+ *
+ * Options, defaults in brackets:
+ *   -seed n        random seed [1]
+ *   -functions n   functions besides main [20]
+ *   -size bytes    instead of -functions, add functions until the program is
+ *                  about this big, k and M suffixes allowed
+ *   -structs n     struct types [4]
+ *   -depth n       how deeply loops and ifs nest in a function [3]
+ *   -width n       operands in an expression [4]
+ *   -loops p       chance that a statement which may nest is a loop [0.3]
+ *   -calls p       chance that a statement or operand is a call [0.1]
+ *   -fuel n        calls made before the rest do nothing [1000]
+ *   -o file        where to write the program [standard output]
+ *
+ * The programs run as well as compile: every loop counts to a small constant
+ * and calls only go to functions defined earlier, while a global fuel
+ * counter, decremented by every call, stops the calls once enough of them
+ * have run. Values stay below 1000 because every stored value is reduced
+ * modulo 1000, operands are only multiplied by constants below 10 and
+ * divisors are (x % 7 + 8), so nothing overflows or divides by zero.
+ */
+public class WorkloadGenerator {
+
+    private static final int MAX_WIDTH = 10000;
+
+    private static final class Struct {
+        final String name;
+        final int ints;             // fields a0, a1, ...
+        final boolean hasChar;      // field c
+        final boolean hasArray;     // field v[4]
+
+        Struct(String name, int ints, boolean hasChar, boolean hasArray) {
+            this.name = name;
+            this.ints = ints;
+            this.hasChar = hasChar;
+            this.hasArray = hasArray;
+        }
+    }
+
+    private static final class Function {
+        final String name;
+        final int ints;             // parameters p0, p1, ...
+        final boolean hasChar;      // a last parameter pc
+        final boolean returnsInt;
+
+        Function(String name, int ints, boolean hasChar, boolean returnsInt) {
+            this.name = name;
+            this.ints = ints;
+            this.hasChar = hasChar;
+            this.returnsInt = returnsInt;
+        }
+    }
+
+    // what can be generated
+    public long seed = 1;
+    public int functions = 20;
+    public long size = 0;           // > 0 overrides functions
+    public int structs = 4;
+    public int depth = 3;
+    public int width = 4;
+    public double loops = 0.3;
+    public double calls = 0.1;
+    public int fuel = 1000;
+
+    private Random random;
+    private final List<Struct> structTypes = new ArrayList<Struct>();
+    private final List<Function> defined = new ArrayList<Function>();
+    private final List<Function> returningInt = new ArrayList<Function>();
+
+    // the function being generated
+    private int locals;
+    private Struct local;
+    private Function current;
+
+    private StringBuilder sb;
+    private long written;
+
+    /**
+     * Writes one program to out. Returns the number of characters written,
+     * which is the number of bytes, the program being ASCII.
+     */
+    public long generate(Writer out) throws IOException {
+        random = new Random(seed);
+        structTypes.clear();
+        defined.clear();
+        returningInt.clear();
+        sb = new StringBuilder();
+        written = 0;
+
+        for (int k = 0; k < structs; k++) {
+            Struct s = new Struct("s" + k, 1 + random.nextInt(3), random.nextBoolean(), random.nextBoolean());
+            structTypes.add(s);
+            sb.append("struct ").append(s.name).append(" {");
+            for (int f = 0; f < s.ints; f++)
+                sb.append(" int a").append(f).append(';');
+            if (s.hasChar)
+                sb.append(" char c;");
+            if (s.hasArray)
+                sb.append(" int v[4];");
+            sb.append(" };\n");
+        }
+        sb.append('\n');
+        sb.append("int fuel;\n");
+        sb.append("int g0; int g1; int g2; int g3;\n");
+        sb.append("int ga[8];\n");
+        for (Struct s : structTypes)
+            sb.append("struct ").append(s.name).append(" g").append(s.name).append(";\n");
+        flush(out);
+
+        // main takes a few hundred bytes
+        for (int k = 0; size > 0 ? written < size - 300 : k < functions; k++) {
+            function(k);
+            flush(out);
+        }
+        main();
+        flush(out);
+        out.flush();
+        return written;
+    }
+
+    private void flush(Writer out) throws IOException {
+        out.append(sb);
+        written += sb.length();
+        sb.setLength(0);
+    }
+
+    // ------------------- declarations ---------------
+
+    private void function(int k) {
+        current = new Function("f" + k, random.nextInt(4), random.nextInt(4) == 0, random.nextInt(5) > 0);
+        locals = 2 + random.nextInt(3);
+        local = structTypes.isEmpty() ? null : pick(structTypes);
+
+        sb.append('\n').append(current.returnsInt ? "int " : "void ").append(current.name).append('(');
+        for (int p = 0; p < current.ints; p++)
+            sb.append(p > 0 ? ", " : "").append("int p").append(p);
+        if (current.hasChar)
+            sb.append(current.ints > 0 ? ", " : "").append("char pc");
+        sb.append(") {\n");
+
+        indent(1).append("int r;");
+        for (int x = 0; x < locals; x++)
+            sb.append(" int x").append(x).append(';');
+        for (int i = 0; i < depth; i++)
+            sb.append(" int i").append(i).append(';');
+        sb.append(" char c;");
+        if (local != null)
+            sb.append(" struct ").append(local.name).append(" l;");
+        sb.append('\n');
+
+        // the stack holds whatever the last call left, so everything starts at a known value
+        indent(1).append("r = 0;");
+        for (int x = 0; x < locals; x++)
+            sb.append(" x").append(x).append(" = ").append(random.nextInt(100)).append(';');
+        for (int i = 0; i < depth; i++)
+            sb.append(" i").append(i).append(" = 0;");
+        sb.append(" c = ").append(chr()).append(";\n");
+        if (local != null) {
+            indent(1);
+            for (int f = 0; f < local.ints; f++)
+                sb.append("l.a").append(f).append(" = 0; ");
+            if (local.hasChar)
+                sb.append("l.c = ").append(chr()).append("; ");
+            if (local.hasArray)
+                sb.append("l.v[0] = 0; l.v[1] = 0; l.v[2] = 0; l.v[3] = 0; ");
+            sb.setLength(sb.length() - 1);
+            sb.append('\n');
+        }
+
+        indent(1).append("fuel = fuel - 1;\n");
+        indent(1).append("if (fuel > 0) {\n");
+        int statements = 2 + random.nextInt(4);
+        for (int s = 0; s < statements; s++)
+            statement(depth, 2);
+        indent(2).append("r = ").append(reduced(width, 2)).append(";\n");
+        indent(1).append("}\n");
+        if (current.returnsInt)
+            indent(1).append("return r;\n");
+        sb.append("}\n");
+
+        defined.add(current);
+        if (current.returnsInt)
+            returningInt.add(current);
+    }
+
+    private void main() {
+        current = null;
+        locals = 0;
+        local = null;
+        sb.append("\nvoid main() {\n");
+        indent(1).append("fuel = ").append(fuel).append(";\n");
+        for (int k = Math.max(0, defined.size() - 4); k < defined.size(); k++) {
+            Function f = defined.get(k);
+            indent(1);
+            if (f.returnsInt)
+                sb.append("print_i(").append(call(f)).append("); print_c(' ');\n");
+            else
+                sb.append(call(f)).append(";\n");
+        }
+        indent(1).append("print_i(g0 + g1 + g2 + g3 + ga[0]);\n");
+        indent(1).append("print_c('\\n');\n");
+        sb.append("}\n");
+    }
+
+    // ------------------- statements ---------------
+
+    // levels is how much deeper loops and ifs may still nest
+    private void statement(int levels, int indent) {
+        double choice = random.nextDouble();
+        if (levels > 0 && choice < loops) {
+            String i = "i" + (depth - levels);
+            indent(indent).append(i).append(" = 0;\n");
+            indent(indent).append("while (").append(i).append(" < ").append(2 + random.nextInt(3)).append(") {\n");
+            block(levels - 1, indent + 1);
+            indent(indent + 1).append(i).append(" = ").append(i).append(" + 1;\n");
+            indent(indent).append("}\n");
+        } else if (levels > 0 && choice < loops + (1 - loops) * 0.4) {
+            indent(indent).append("if (").append(condition()).append(") {\n");
+            block(levels - 1, indent + 1);
+            if (random.nextBoolean()) {
+                indent(indent).append("} else {\n");
+                block(levels - 1, indent + 1);
+            }
+            indent(indent).append("}\n");
+        } else if (!defined.isEmpty() && random.nextDouble() < calls) {
+            indent(indent).append(call(pick(defined))).append(";\n");
+        } else if (random.nextInt(10) == 0) {
+            indent(indent).append(random.nextBoolean() || local == null || !local.hasChar ? "c" : "l.c")
+                .append(" = ").append(chr()).append(";\n");
+        } else {
+            indent(indent).append(lvalue()).append(" = ").append(reduced(width, 2)).append(";\n");
+        }
+    }
+
+    private void block(int levels, int indent) {
+        int statements = 1 + random.nextInt(3);
+        for (int s = 0; s < statements; s++)
+            statement(levels, indent);
+    }
+
+    private String lvalue() {
+        int choice = random.nextInt(6);
+        if (choice == 0)
+            return "g" + random.nextInt(4);
+        if (choice == 1)
+            return "ga[" + random.nextInt(8) + "]";
+        if (choice == 2)
+            return "r";
+        // a field of the local struct, else of a global one, else a local int
+        if (choice == 3 && local != null)
+            return field("l", local);
+        if (choice <= 4 && !structTypes.isEmpty()) {
+            Struct s = pick(structTypes);
+            return field("g" + s.name, s);
+        }
+        return "x" + random.nextInt(locals);
+    }
+
+    private String field(String var, Struct s) {
+        if (s.hasArray && random.nextBoolean())
+            return var + ".v[" + random.nextInt(4) + "]";
+        return var + ".a" + random.nextInt(s.ints);
+    }
+
+    // ------------------- expressions ---------------
+
+    // an int expression below 1000 in size
+    private String reduced(int width, int nesting) {
+        return "(" + expression(width, nesting) + ") % 1000";
+    }
+
+    // width operands added or subtracted, each below 9000 in size
+    private String expression(int width, int nesting) {
+        width = Math.max(1, Math.min(width, MAX_WIDTH));
+        StringBuilder e = new StringBuilder(operand(nesting));
+        for (int k = 1; k < width; k++)
+            e.append(random.nextBoolean() ? " + " : " - ").append(operand(nesting));
+        return e.toString();
+    }
+
+    private String operand(int nesting) {
+        int choice = random.nextInt(20);
+        if (nesting > 0 && choice == 0)
+            return "(" + reduced(Math.max(1, width / 2), nesting - 1) + ")";
+        if (nesting > 0 && choice == 1)
+            return "((" + expression(Math.max(1, width / 2), nesting - 1) + ") / (" + atom(0) + " % 7 + 8) % 1000)";
+        if (choice < 5)
+            return atom(nesting) + " * " + (2 + random.nextInt(8));
+        if (choice == 5)
+            return "-" + atom(nesting);
+        return atom(nesting);
+    }
+
+    // a value below 1000 in size, a call only where nesting is left, so that arguments hold no calls
+    private String atom(int nesting) {
+        if (nesting > 0 && current != null && !returningInt.isEmpty() && random.nextDouble() < calls)
+            return call(pick(returningInt));
+        int choice = random.nextInt(8);
+        if (choice == 0)
+            return String.valueOf(random.nextInt(100));
+        if (choice == 1)
+            return "g" + random.nextInt(4);
+        if (choice == 2)
+            return "ga[" + random.nextInt(8) + "]";
+        // a parameter, a local struct's field, a loop counter or a local,
+        // each choice taking the next one when there is nothing to use
+        if (choice == 3 && current != null && current.ints > 0)
+            return "p" + random.nextInt(current.ints);
+        if (choice <= 4 && local != null)
+            return field("l", local);
+        if (choice <= 5 && current != null && depth > 0)
+            return "i" + random.nextInt(depth);
+        if (locals > 0)
+            return "x" + random.nextInt(locals);
+        return String.valueOf(random.nextInt(100));
+    }
+
+    private String call(Function f) {
+        StringBuilder c = new StringBuilder(f.name).append('(');
+        for (int p = 0; p < f.ints; p++)
+            c.append(p > 0 ? ", " : "").append(reduced(Math.min(width, 2), 0));
+        if (f.hasChar)
+            c.append(f.ints > 0 ? ", " : "").append(chr());
+        return c.append(')').toString();
+    }
+
+    private String condition() {
+        String c = comparison();
+        switch (random.nextInt(4)) {
+            case 0:  return c + " && " + comparison();
+            case 1:  return c + " || " + comparison();
+            default: return c;
+        }
+    }
+
+    private String comparison() {
+        if (random.nextInt(5) == 0) {
+            String var = current != null && current.hasChar && random.nextBoolean() ? "pc" : "c";
+            return var + (random.nextBoolean() ? " == " : " != ") + chr();
+        }
+        String[] ops = { " < ", " > ", " <= ", " >= ", " == ", " != " };
+        return expression(Math.min(width, 2), 0) + ops[random.nextInt(ops.length)] + expression(Math.min(width, 2), 0);
+    }
+
+    private String chr() {
+        return "'" + (char) ('a' + random.nextInt(26)) + "'";
+    }
+
+    // ------------------- helpers ---------------
+
+    private <T> T pick(List<T> list) {
+        return list.get(random.nextInt(list.size()));
+    }
+
+    private StringBuilder indent(int levels) {
+        for (int k = 0; k < levels; k++)
+            sb.append("    ");
+        return sb;
+    }
+
+    private static long bytes(String s) {
+        long unit = 1;
+        if (s.endsWith("k") || s.endsWith("K"))
+            unit = 1 << 10;
+        else if (s.endsWith("m") || s.endsWith("M"))
+            unit = 1 << 20;
+        return Long.parseLong(unit == 1 ? s : s.substring(0, s.length() - 1)) * unit;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java workload.WorkloadGenerator [-seed n] [-functions n | -size bytes] [-structs n]");
+        System.err.println("           [-depth n] [-width n] [-loops p] [-calls p] [-fuel n] [-o file]");
+        System.exit(-1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        WorkloadGenerator g = new WorkloadGenerator();
+        String output = null;
+        try {
+            for (int k = 0; k < args.length; k += 2) {
+                if (k + 1 >= args.length)
+                    usage();
+                String value = args[k + 1];
+                switch (args[k]) {
+                    case "-seed":      g.seed = Long.parseLong(value); break;
+                    case "-functions": g.functions = Integer.parseInt(value); break;
+                    case "-size":      g.size = bytes(value); break;
+                    case "-structs":   g.structs = Integer.parseInt(value); break;
+                    case "-depth":     g.depth = Integer.parseInt(value); break;
+                    case "-width":     g.width = Integer.parseInt(value); break;
+                    case "-loops":     g.loops = Double.parseDouble(value); break;
+                    case "-calls":     g.calls = Double.parseDouble(value); break;
+                    case "-fuel":      g.fuel = Integer.parseInt(value); break;
+                    case "-o":         output = value; break;
+                    default:           usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (g.functions < 0 || g.structs < 0 || g.depth < 0 || g.width < 1)
+            usage();
+
+        try (Writer out = new BufferedWriter(output == null ? new OutputStreamWriter(System.out) : new FileWriter(output), 1 << 16)) {
+            g.generate(out);
+        }
+    }
+}
@@ -1,16 +1,44 @@
 import ast.ASTPrinter;
+import ast.NodeCounter;
 import ast.Program;
 import gen.CodeGenerator;
+import gen.IRBackend;
+import ir.IRBuilder;
 import lexer.Scanner;
 import lexer.Token;
+import lexer.TokenStream;
 import lexer.Tokeniser;
 import parser.Parser;
 import sem.SemanticAnalyzer;
+import sim.Assembler;
+import sim.SimulationException;
+import sim.Simulator;
+import util.PassTimer;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntSupplier;
 
 
 /**
@@ -25,65 +53,179 @@ public class Main {
     private static final int LEXER_FAIL     = 250;
     private static final int PARSER_FAIL    = 245;
     private static final int SEM_FAIL       = 240;
+    private static final int RUN_FAIL       = 235;
     private static final int PASS           = 0;
     
     private enum Mode {
-        LEXER, PARSER, AST, SEMANTICANALYSIS, GEN
+        LEXER, PARSER, AST, SEMANTICANALYSIS, GEN, RUN
     }
 
-    private static void usage() {
-        System.out.println("Usage: java "+Main.class.getSimpleName()+" pass inputfile outputfile");
-        System.out.println("where pass is either: -lexer, -parser, -ast, -sem or -gen");
-        System.exit(-1);
+    // what the leading options asked for
+    private static final class Options {
+        boolean parallelSem = false;
+        boolean viaIR = false;
+        boolean peepholeStats = false;
+        File profileFile = null;
+        boolean timePasses = false;
+        File timingFile = null;
+        int jobs = 0;           // threads for a batch, 0 for a single file
     }
 
-    public static void main(String[] args) {
+    private static int usage() {
+        System.out.println("Usage: java "+Main.class.getSimpleName()+" [options] pass inputfile outputfile");
+        System.out.println("   or: java "+Main.class.getSimpleName()+" [options] -j threads pass outputdir input...");
+        System.out.println("where pass is either: -lexer, -parser, -ast, -sem, -gen or -run");
+        System.out.println("(-run generates the code like -gen, then executes it with input and output on the console)");
+        System.out.println("and options are:");
+        System.out.println("  -parallel-sem   check function bodies concurrently during semantic analysis");
+        System.out.println("  -ir             generate code through the three-address IR backend (experimental,");
+        System.out.println("                  without the optimisations of the default code generator)");
+        System.out.println("  -peephole-stats report how often each peephole rewrite fired");
+        System.out.println("  -profile file   with -run, write what the program executed to file as JSON");
+        System.out.println("  -time-passes    report time and memory spent in each pass on standard error");
+        System.out.println("  -time-passes-json file   the same, written to file as JSON");
+        System.out.println("  -j threads      compile each input, a file or a directory of .c files, on that many");
+        System.out.println("                  threads, writing outputdir/name.asm (name.out before -gen)");
+        System.out.println("or: java "+Main.class.getSimpleName()+" -server");
+        System.out.println("(compiles one request per line read from standard input, see serve)");
+        return -1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 && args[0].equals("-server"))
+            serve(System.in, System.out);
+        else
+            System.exit(compile(args));
+    }
 
-        if (args.length != 3)
-            usage();
+    /**
+     * Runs Main once with the given arguments, as if from the command line,
+     * and returns what the exit code would be.
+     */
+    public static int compile(String[] args) {
+
+        // leading options, then the pass and the two files
+        Options opts = new Options();
+        int arg = 0;
+        options:
+        while (arg < args.length) {
+            switch (args[arg]) {
+                case "-parallel-sem": opts.parallelSem = true; arg++; break;
+                case "-ir":           opts.viaIR = true; arg++; break;
+                case "-peephole-stats": opts.peepholeStats = true; arg++; break;
+                case "-profile":
+                    if (arg + 1 >= args.length)
+                        return usage();
+                    opts.profileFile = new File(args[arg + 1]);
+                    arg += 2;
+                    break;
+                case "-time-passes": opts.timePasses = true; arg++; break;
+                case "-time-passes-json":
+                    if (arg + 1 >= args.length)
+                        return usage();
+                    opts.timingFile = new File(args[arg + 1]);
+                    arg += 2;
+                    break;
+                case "-j":
+                    if (arg + 1 >= args.length)
+                        return usage();
+                    try {
+                        opts.jobs = Integer.parseInt(args[arg + 1]);
+                    } catch (NumberFormatException e) {
+                        return usage();
+                    }
+                    if (opts.jobs < 1)
+                        return usage();
+                    arg += 2;
+                    break;
+                default: break options;
+            }
+        }
+
+        // a batch takes any number of inputs, but they cannot share one profile or timing report
+        boolean reports = opts.profileFile != null || opts.timePasses || opts.timingFile != null;
+        if (opts.jobs > 0 ? args.length - arg < 3 || reports : args.length - arg != 3)
+            return usage();
 
         Mode mode = null;
-        switch (args[0]) {
+        switch (args[arg]) {
             case "-lexer": mode = Mode.LEXER; break;	case "-parser": mode = Mode.PARSER; break;
             case "-ast":   mode = Mode.AST; break;		case "-sem":    mode = Mode.SEMANTICANALYSIS; break;
-            case "-gen":   mode = Mode.GEN; break;
+            case "-gen":   mode = Mode.GEN; break;		case "-run":    mode = Mode.RUN; break;
             default:
-                usage();
-                break;
+                return usage();
+        }
+
+        if (opts.jobs > 0)
+            return batch(mode, opts, new File(args[arg + 1]), Arrays.copyOfRange(args, arg + 2, args.length));
+
+        PassTimer timer = opts.timePasses || opts.timingFile != null ? new PassTimer() : PassTimer.NONE;
+        int status = compile(mode, opts, timer, new File(args[arg + 1]), new File(args[arg + 2]));
+        timer.stop();
+        if (opts.timePasses)
+            timer.report(System.err);
+        if (opts.timingFile != null) {
+            try (PrintWriter writer = new PrintWriter(opts.timingFile)) {
+                timer.writeJson(writer);
+            } catch (FileNotFoundException e) {
+                System.err.println("File " + opts.timingFile + " cannot be written.");
+                return FILE_NOT_FOUND;
+            }
         }
+        return status;
+    }
+
+    // with a timer the input is lexed up front, so that lexing and parsing are timed apart
+    private static Parser parser(Tokeniser tokeniser, PassTimer timer) {
+        if (!timer.isEnabled())
+            return new Parser(tokeniser);
+        timer.start("lexing");
+        TokenStream tokens = TokenStream.lex(tokeniser);
+        timer.count("tokens", tokens.size());
+        timer.start("parsing");
+        return new Parser(tokens);
+    }
 
-        File inputFile = new File(args[1]);
-        File outputFile = new File(args[2]);
+    private static void countNodes(PassTimer timer, Parser parser, Program program) {
+        timer.stop();
+        if (timer.isEnabled() && parser.getErrorCount() == 0)
+            timer.count("ast nodes", NodeCounter.count(program));
+    }
 
+    // one file through the pass, with its own lexer, parser, analyzer and generator
+    private static int compile(Mode mode, Options opts, PassTimer timer, File inputFile, File outputFile) {
         Scanner scanner;
         try {
             scanner = new Scanner(inputFile);
         } catch (FileNotFoundException e) {
             System.out.println("File "+inputFile.toString()+" does not exist.");
-            System.exit(FILE_NOT_FOUND);
-            return;
+            return FILE_NOT_FOUND;
         }
 
         Tokeniser tokeniser = new Tokeniser(scanner);
         if (mode == Mode.LEXER) {
-            for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken()) 
+            timer.start("lexing");
+            int tokens = 1;
+            for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken(), tokens++) 
             	System.out.println(t);
+            timer.count("tokens", tokens);
             if (tokeniser.getErrorCount() == 0)
         		System.out.println("Lexing: pass");
     	    else
         		System.out.println("Lexing: failed ("+tokeniser.getErrorCount()+" errors)");	
-            System.exit(tokeniser.getErrorCount() == 0 ? PASS : LEXER_FAIL);
+            return tokeniser.getErrorCount() == 0 ? PASS : LEXER_FAIL;
         } else if (mode == Mode.PARSER) {
-		    Parser parser = new Parser(tokeniser);
-		    parser.parse();
+		    Parser parser = parser(tokeniser, timer);
+		    countNodes(timer, parser, parser.parse());
 		    if (parser.getErrorCount() == 0)
 		    	System.out.println("Parsing: pass");
 		    else
 		    	System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
-		    System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
+		    return parser.getErrorCount() == 0 ? PASS : PARSER_FAIL;
         }  else if (mode == Mode.AST) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = parser(tokeniser, timer);
             Program programAst = parser.parse();
+            countNodes(timer, parser, programAst);
             if (parser.getErrorCount() == 0) {
                 System.out.println("Parsing: pass");
                 System.out.println("Printing out AST:");
@@ -100,38 +242,320 @@ public class Main {
                 }
             } else
                 System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
-            System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
+            return parser.getErrorCount() == 0 ? PASS : PARSER_FAIL;
         } else if (mode == Mode.SEMANTICANALYSIS) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = parser(tokeniser, timer);
             Program programAst = parser.parse();
+            countNodes(timer, parser, programAst);
             if (parser.getErrorCount() == 0) {
                 SemanticAnalyzer sem = new SemanticAnalyzer();
-                int errors = sem.analyze(programAst);
+                sem.setTimer(timer);
+                int errors = opts.parallelSem ? sem.analyzeParallel(programAst) : sem.analyze(programAst);
                 if (errors == 0)
                     System.out.println("Semantic analysis: Pass");
                 else
                     System.out.println("Semantic analysis: Failed (" + errors + ")");
-                System.exit(errors == 0 ? PASS : SEM_FAIL);
+                return errors == 0 ? PASS : SEM_FAIL;
             } else
-                System.exit(PARSER_FAIL);
-        } else if (mode == Mode.GEN) {
-            Parser parser = new Parser(tokeniser);
+                return PARSER_FAIL;
+        } else if (mode == Mode.GEN || mode == Mode.RUN) {
+            Parser parser = parser(tokeniser, timer);
             Program programAst = parser.parse();
+            countNodes(timer, parser, programAst);
             if (parser.getErrorCount() > 0)
-                System.exit(PARSER_FAIL);
+                return PARSER_FAIL;
             SemanticAnalyzer sem = new SemanticAnalyzer();
-            int errors = sem.analyze(programAst);
+            sem.setTimer(timer);
+            int errors = opts.parallelSem ? sem.analyzeParallel(programAst) : sem.analyze(programAst);
             if (errors > 0)
-                System.exit(SEM_FAIL);
-            CodeGenerator codegen = new CodeGenerator();
+                return SEM_FAIL;
             try {
-                codegen.emitProgram(programAst, outputFile);
+                if (opts.viaIR) {
+                    timer.start("ir build");
+                    IRBackend backend = new IRBackend();
+                    backend.setTimer(timer);
+                    backend.emitProgram(IRBuilder.build(programAst), outputFile);
+                } else {
+                    CodeGenerator codegen = new CodeGenerator();
+                    codegen.setTimer(timer);
+                    codegen.emitProgram(programAst, outputFile);
+                    if (opts.peepholeStats)
+                        codegen.peephole().report(System.err);
+                }
             } catch (FileNotFoundException e) {
                 System.out.println("File "+outputFile.toString()+" does not exist.");
-                System.exit(FILE_NOT_FOUND);
+                return FILE_NOT_FOUND;
             }
+            if (mode == Mode.RUN)
+                return run(outputFile, opts.profileFile, timer);
+            return PASS;
         } else {
-        	System.exit(MODE_FAIL);
+        	return MODE_FAIL;
+        }
+    }
+
+    /**
+     * Compiles many files in one JVM, so that startup and class loading are
+     * paid once and later requests run on warmed up code. Every line read
+     * from in is one request holding the arguments Main would be given on
+     * the command line, separated by spaces. Each is answered on out with
+     * a header line
+     *
+     *   status stdoutBytes stderrBytes
+     *
+     * followed by exactly that many bytes of what it printed to standard
+     * output and standard error. The status is the exit code the command
+     * would have had. A -run request sees an empty standard input. Serving
+     * stops at the end of in.
+     */
+    public static void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader requests = new BufferedReader(new InputStreamReader(in));
+        Capture capture = new Capture();
+        try {
+            String line;
+            while ((line = requests.readLine()) != null) {
+                String[] args = line.trim().split("\\s+");
+                if (args[0].isEmpty())
+                    continue;
+
+                Result result = capture.run(() -> compile(args));
+                String header = result.status + " " + result.out.length + " " + result.err.length + "\n";
+                out.write(header.getBytes(StandardCharsets.US_ASCII));
+                out.write(result.out);
+                out.write(result.err);
+                out.flush();
+            }
+        } finally {
+            capture.close();
+        }
+    }
+
+    /**
+     * Compiles every input, a MiniC file or a directory searched for .c
+     * files, on a pool of opts.jobs threads. The output for name.c goes to
+     * outputDir/name.asm, or name.out for the passes before -gen, in the
+     * same subdirectory as it is in below a directory input. Prints one
+     * status line per file in the order given, followed by the diagnostics
+     * of those that failed, then a summary. Returns PASS when every file
+     * passed, otherwise the exit code of the first that did not.
+     */
+    private static int batch(Mode mode, Options opts, File outputDir, String[] inputs) {
+        // output path below outputDir -> input
+        String suffix = mode == Mode.GEN || mode == Mode.RUN ? ".asm" : ".out";
+        Map<String, File> outputs = new LinkedHashMap<String, File>();
+        List<File> files = new ArrayList<File>();
+        for (String input : inputs) {
+            files.clear();
+            File root = new File(input);
+            collect(root, files);
+            for (File f : files) {
+                String path = f == root ? f.getName() : root.toPath().relativize(f.toPath()).toString();
+                path = (path.endsWith(".c") ? path.substring(0, path.length() - 2) : path) + suffix;
+                File clash = outputs.put(path, f);
+                if (clash != null) {
+                    System.out.println("Files " + clash + " and " + f + " would both write " + new File(outputDir, path) + ".");
+                    return FILE_NOT_FOUND;
+                }
+            }
+        }
+        for (String path : outputs.keySet()) {
+            File dir = new File(outputDir, path).getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                System.out.println("Directory " + dir + " cannot be created.");
+                return FILE_NOT_FOUND;
+            }
+        }
+        files = new ArrayList<File>(outputs.values());
+
+        PrintStream console = System.out;
+        long start = System.nanoTime();
+        Capture capture = new Capture();
+        ExecutorService pool = Executors.newFixedThreadPool(opts.jobs);
+        int status = PASS, failed = 0;
+        try {
+            List<Future<Result>> results = new ArrayList<Future<Result>>();
+            for (Map.Entry<String, File> e : outputs.entrySet()) {
+                File input = e.getValue(), output = new File(outputDir, e.getKey());
+                results.add(pool.submit(() -> capture.run(() -> compile(mode, opts, PassTimer.NONE, input, output))));
+            }
+            for (int k = 0; k < files.size(); k++) {
+                Result result = getUninterruptibly(results.get(k));
+                console.printf("%-15s %s%n", statusName(result.status), files.get(k));
+                if (result.status != PASS) {
+                    console.write(result.out, 0, result.out.length);
+                    console.write(result.err, 0, result.err.length);
+                    if (failed++ == 0)
+                        status = result.status;
+                }
+            }
+        } finally {
+            pool.shutdown();
+            capture.close();
+        }
+        console.printf("%d files, %d passed, %d failed, %d threads, %.2fs%n", files.size(), files.size() - failed,
+            failed, opts.jobs, (System.nanoTime() - start) / 1e9);
+        return status;
+    }
+
+    // the .c files under a directory, in name order, or the file itself
+    private static void collect(File input, List<File> files) {
+        File[] children = input.listFiles();
+        if (children == null) {
+            files.add(input);
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory() || child.getName().endsWith(".c"))
+                collect(child, files);
+        }
+    }
+
+    private static Result getUninterruptibly(Future<Result> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // Capture.run catches what compile throws, so this is a bug in Main
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String statusName(int status) {
+        switch (status) {
+            case PASS:           return "PASS";
+            case FILE_NOT_FOUND: return "FILE_NOT_FOUND";
+            case MODE_FAIL:      return "MODE_FAIL";
+            case LEXER_FAIL:     return "LEXER_FAIL";
+            case PARSER_FAIL:    return "PARSER_FAIL";
+            case SEM_FAIL:       return "SEM_FAIL";
+            case RUN_FAIL:       return "RUN_FAIL";
+            default:             return "EXIT " + status;
+        }
+    }
+
+    // the exit code of one compile and what it printed
+    private static final class Result {
+        final int status;
+        final byte[] out;
+        final byte[] err;
+
+        Result(int status, byte[] out, byte[] err) {
+            this.status = status;
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    /*
+     * The lexer, parser and analyzer print their diagnostics on System.out
+     * and System.err. While a Capture is open those are replaced by streams
+     * that keep what each thread prints apart, so compiles running at the
+     * same time do not mix their output, and System.in is empty.
+     */
+    private static final class Capture {
+        private final PrintStream stdout = System.out, stderr = System.err;
+        private final InputStream stdin = System.in;
+        private final PerThread out = new PerThread(), err = new PerThread();
+
+        Capture() {
+            System.setOut(new PrintStream(out, true));
+            System.setErr(new PrintStream(err, true));
+            System.setIn(new ByteArrayInputStream(new byte[0]));
+        }
+
+        // compiles in this thread, with the exit code the process would have had
+        Result run(IntSupplier compile) {
+            int status;
+            try {
+                status = compile.getAsInt();
+            } catch (RuntimeException | StackOverflowError e) {
+                // what the JVM would do with it, and the next compile still runs
+                e.printStackTrace();
+                status = 1;
+            }
+            System.out.flush();
+            System.err.flush();
+            return new Result(status & 0xff, out.take(), err.take());
+        }
+
+        void close() {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            System.setIn(stdin);
+        }
+    }
+
+    private static final class PerThread extends OutputStream {
+        private final ThreadLocal<ByteArrayOutputStream> buffer = new ThreadLocal<ByteArrayOutputStream>() {
+            @Override
+            protected ByteArrayOutputStream initialValue() {
+                return new ByteArrayOutputStream();
+            }
+        };
+
+        @Override
+        public void write(int b) {
+            buffer.get().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.get().write(b, off, len);
+        }
+
+        // what this thread wrote since the last take
+        byte[] take() {
+            byte[] bytes = buffer.get().toByteArray();
+            buffer.get().reset();
+            return bytes;
+        }
+    }
+
+    // executes generated assembly in this JVM, returns the exit code for Main
+    private static int run(File asm, File profileFile, PassTimer timer) {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+        Simulator sim;
+        timer.start("assembling");
+        try {
+            sim = new Simulator(Assembler.assemble(asm), System.in, out);
+        } catch (SimulationException e) {
+            System.err.println("Cannot assemble " + asm + ": " + e.getMessage());
+            return RUN_FAIL;
+        } catch (IOException e) {
+            System.err.println("Cannot read " + asm + ": " + e.getMessage());
+            return FILE_NOT_FOUND;
+        }
+
+        int status;
+        timer.start("simulation");
+        try {
+            status = sim.run();
+        } catch (SimulationException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            status = RUN_FAIL;
+        }
+        timer.stop();
+        timer.count("executed instructions", sim.steps());
+
+        // a failed run is profiled too, up to where it stopped
+        if (profileFile != null) {
+            try (PrintWriter writer = new PrintWriter(profileFile)) {
+                sim.profile().writeJson(writer);
+            } catch (FileNotFoundException e) {
+                System.err.println("File " + profileFile + " cannot be written.");
+                return FILE_NOT_FOUND;
+            }
         }
+        return status;
     }
 }
\ No newline at end of file
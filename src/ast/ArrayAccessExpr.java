@@ -3,7 +3,7 @@ package ast;
 public class ArrayAccessExpr extends Expr {
 
     public final Expr array;
-    public final Expr index;
+    public Expr index;
 
     public ArrayAccessExpr(Expr array, Expr index) {
         this.array = array;
@@ -2,8 +2,8 @@ package ast;
 
 public class Assign extends Stmt {
 
-    public final Expr left;
-    public final Expr right;
+    public Expr left;
+    public Expr right;
 
     public Assign(Expr left, Expr right) {
         this.left = left;
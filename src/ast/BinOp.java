@@ -2,9 +2,9 @@ package ast;
 
 public class BinOp extends Expr {
 
-    public final Expr left;
+    public Expr left;
     public final Op op;
-    public final Expr right;
+    public Expr right;
 
     public BinOp(Expr left, Op op, Expr right) {
         this.left = left;
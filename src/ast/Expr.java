@@ -5,6 +5,7 @@ public abstract class Expr implements ASTNode {
     public Type type; // to be filled in by the type analyser
     public boolean isImmediate = false; // not an immediate by default
     public boolean isGlobal = false;    // not an immediate by default
+    public int registers;               // temporaries its code needs, filled in by gen.Frame
     public abstract <T> T accept(ASTVisitor<T> v);
 
     public static boolean isVarExpr(Expr expr) {
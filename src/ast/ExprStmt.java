@@ -2,7 +2,7 @@ package ast;
 
 public class ExprStmt extends Stmt {
 
-    public final Expr expr;
+    public Expr expr;
 
     public ExprStmt(Expr expr) {
         this.expr = expr;
@@ -4,11 +4,13 @@ public class FieldAccessExpr extends Expr {
 
     public final Expr struct;
     public final String field;
+    public final int fieldId; // interned field name
     public int totalOffset = 0;
 
-    public FieldAccessExpr(Expr struct, String field) {
+    public FieldAccessExpr(Expr struct, String field, int fieldId) {
         this.struct = struct;
         this.field = field;
+        this.fieldId = fieldId;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
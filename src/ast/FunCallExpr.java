@@ -7,14 +7,16 @@ import java.util.List;
 public class FunCallExpr extends Expr {
 
     public final String name;
+    public final int id; // interned name
     public List<Expr> args;
     public FunDecl fd;
     
     public List<Expr> regArgs = new ArrayList<Expr>();
     public List<Expr> stackArgs = new ArrayList<Expr>();
 
-    public FunCallExpr(String name, List<Expr> args) {
+    public FunCallExpr(String name, int id, List<Expr> args) {
         this.name = name;
+        this.id = id;
         this.args = args;
     }
 
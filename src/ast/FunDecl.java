@@ -3,35 +3,40 @@ package ast;
 import java.util.ArrayList;
 import java.util.List;
 
+import util.Position;
+
 public class FunDecl implements ASTNode {
 
     public final Type type;
     public final String name;
+    public final int id; // interned name
     public final List<VarDecl> params;
     public final Block block;
     public Expr returnExpr;
+    public Position position; // of the function name
 
     public List<VarDecl> regArgs = new ArrayList<VarDecl>();
     public List<VarDecl> stackArgs = new ArrayList<VarDecl>();
 
-    public FunDecl(Type type, String name, List<VarDecl> params, Block block) {
+    public FunDecl(Type type, String name, int id, List<VarDecl> params, Block block) {
         this.type = type;
         this.name = name;
+        this.id = id;
         this.params = params;
         this.block = block;
     }
 
-    public FunDecl(Type type, String name, List<VarDecl> params) {
-        this(type, name, params, new Block());
+    public FunDecl(Type type, String name, int id, List<VarDecl> params) {
+        this(type, name, id, params, new Block());
     }
 
     public <T> T accept(ASTVisitor<T> v) {
         return v.visitFunDecl(this);
     }
 
-    public boolean hasParam(String p) {
+    public boolean hasParam(int id) {
         for (VarDecl vd : params) {
-            if (vd.name.equals(p)) { return true; };
+            if (vd.id == id) { return true; };
         }
         return false;
     }
@@ -0,0 +1,122 @@
+package ast;
+
+import java.util.List;
+
+// the number of nodes in a tree, types and operators included
+public class NodeCounter implements ASTVisitor<Integer> {
+
+    public static int count(ASTNode node) {
+        return node.accept(new NodeCounter());
+    }
+
+    private int all(List<? extends ASTNode> nodes) {
+        int n = 0;
+        for (ASTNode node : nodes)
+            n += node.accept(this);
+        return n;
+    }
+
+    public Integer visitProgram(Program p) {
+        return 1 + all(p.structTypeDecls) + all(p.varDecls) + all(p.funDecls);
+    }
+
+    public Integer visitBaseType(BaseType bt) {
+        return 1;
+    }
+
+    public Integer visitPointerType(PointerType pt) {
+        return 1 + pt.t.accept(this);
+    }
+
+    public Integer visitStructType(StructType st) {
+        return 1;
+    }
+
+    public Integer visitArrayType(ArrayType at) {
+        return 1 + at.t.accept(this);
+    }
+
+    public Integer visitStructTypeDecl(StructTypeDecl std) {
+        return 1 + std.st.accept(this) + all(std.vds);
+    }
+
+    public Integer visitVarDecl(VarDecl vd) {
+        return 1 + vd.type.accept(this);
+    }
+
+    public Integer visitFunDecl(FunDecl fd) {
+        return 1 + fd.type.accept(this) + all(fd.params) + fd.block.accept(this);
+    }
+
+    public Integer visitIntLiteral(IntLiteral i) {
+        return 1;
+    }
+
+    public Integer visitStrLiteral(StrLiteral s) {
+        return 1;
+    }
+
+    public Integer visitChrLiteral(ChrLiteral c) {
+        return 1;
+    }
+
+    public Integer visitVarExpr(VarExpr v) {
+        return 1;
+    }
+
+    public Integer visitFunCallExpr(FunCallExpr fce) {
+        return 1 + all(fce.args);
+    }
+
+    public Integer visitBinOp(BinOp bo) {
+        return 1 + bo.left.accept(this) + bo.op.accept(this) + bo.right.accept(this);
+    }
+
+    public Integer visitOp(Op o) {
+        return 1;
+    }
+
+    public Integer visitArrayAccessExpr(ArrayAccessExpr aae) {
+        return 1 + aae.array.accept(this) + aae.index.accept(this);
+    }
+
+    public Integer visitFieldAccessExpr(FieldAccessExpr fae) {
+        return 1 + fae.struct.accept(this);
+    }
+
+    public Integer visitValueAtExpr(ValueAtExpr vae) {
+        return 1 + vae.expr.accept(this);
+    }
+
+    public Integer visitSizeOfExpr(SizeOfExpr soe) {
+        return 1 + soe.t.accept(this);
+    }
+
+    public Integer visitTypecastExpr(TypecastExpr te) {
+        return 1 + te.t.accept(this) + te.expr.accept(this);
+    }
+
+    public Integer visitExprStmt(ExprStmt es) {
+        return 1 + es.expr.accept(this);
+    }
+
+    public Integer visitWhile(While w) {
+        return 1 + w.cond.accept(this) + w.stmt.accept(this);
+    }
+
+    public Integer visitIf(If i) {
+        return 1 + i.cond.accept(this) + i.stmt.accept(this) + (i.elseStmt != null ? i.elseStmt.accept(this) : 0);
+    }
+
+    public Integer visitAssign(Assign a) {
+        return 1 + a.left.accept(this) + a.right.accept(this);
+    }
+
+    public Integer visitReturn(Return r) {
+        return 1 + (r.expr != null ? r.expr.accept(this) : 0);
+    }
+
+    public Integer visitBlock(Block b) {
+        return 1 + all(b.vds) + all(b.stmts);
+    }
+}
@@ -2,17 +2,21 @@ package ast;
 
 import java.util.List;
 
+import util.Interner;
+
 public class Program implements ASTNode {
 
     public final List<StructTypeDecl> structTypeDecls;
     public final List<VarDecl> varDecls;
     public final List<FunDecl> funDecls;
+    public final Interner names; // identifier ids used throughout the tree
     public FunDecl main;
 
-    public Program(List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls, List<FunDecl> funDecls) {
+    public Program(List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls, List<FunDecl> funDecls, Interner names) {
         this.structTypeDecls = structTypeDecls;
         this.varDecls = varDecls;
         this.funDecls = funDecls;
+        this.names = names;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
@@ -2,7 +2,7 @@ package ast;
 
 public class Return extends Stmt {
 
-    public final Expr expr;
+    public Expr expr;
     public FunDecl fd;
     public Type funReturnType;
 
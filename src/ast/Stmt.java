@@ -1,5 +1,8 @@
 package ast;
 
+import util.Position;
+
 public abstract class Stmt implements ASTNode {
+    public Position position; // where the statement starts in the source
     public abstract <T> T accept(ASTVisitor<T> v);
 }
@@ -1,15 +1,15 @@
 package ast;
 
-import java.util.HashMap;
-
 public class StructType implements Type {
     
     public final String structType;
+    public final int id; // interned struct name
     public StructTypeDecl std;
     public int size;
 
-    public StructType(String structType) {
+    public StructType(String structType, int id) {
         this.structType = structType;
+        this.id = id;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
@@ -32,11 +32,11 @@ public class StructType implements Type {
         return size;
     }
 
-    public int getFieldOffset(String field) {
-        return std.structOffset.get(field);
+    public int getFieldOffset(int field) {
+        return std.getFieldOffset(field);
     }
 
-    public int getFieldSize(String field) {
+    public int getFieldSize(int field) {
         return std.getFieldType(field).size();
     }
 
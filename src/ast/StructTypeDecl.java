@@ -1,12 +1,10 @@
 package ast;
 
-import java.util.HashMap;
 import java.util.List;
 
 public class StructTypeDecl implements ASTNode {
     public final StructType st;
-    public final List<VarDecl> vds;
-    public HashMap<String, Integer> structOffset = new HashMap<>();
+    public final List<VarDecl> vds; // field offsets are kept in each vd.offset
     public int structSize;
 
     public StructTypeDecl(StructType st, List<VarDecl> vds) {
@@ -18,25 +16,32 @@ public class StructTypeDecl implements ASTNode {
         return v.visitStructTypeDecl(this);
     }
 
-    public boolean hasField(String f) {
+    public boolean hasField(int f) {
         for (VarDecl vd : vds) {
-            if (vd.name.equals(f)) { return true; }
+            if (vd.id == f) { return true; }
         }
         return false;
     }
 
-    public Type getFieldType(String f) {
+    public Type getFieldType(int f) {
         for (VarDecl vd : vds) {
-            if (vd.name.equals(f)) { return vd.type; }
+            if (vd.id == f) { return vd.type; }
         }
         return null;
     }
 
+    public int getFieldOffset(int f) {
+        for (VarDecl vd : vds) {
+            if (vd.id == f) { return vd.offset; }
+        }
+        throw new IllegalArgumentException("no such field");
+    }
+
     public void populateOffsets() {
         // should only be called after types are validated
         int s = 0;        
         for (VarDecl vd : vds) {
-            structOffset.put(vd.name, s);
+            vd.offset = s;
             int inner = vd.type.size();
             // inner = 5, 5%4 = 1 ==> add [4 - (n%4)] % 4
             // pad to align to 4 byte boundary
@@ -56,7 +56,7 @@ public interface Type extends ASTNode {
                 equal = Type.areTypesEqual(Type.getElemType(self), Type.getElemType(other));
             }
             else if (self.isStructType() && other.isStructType()) {
-                equal = ((StructType) self).structType.equals(((StructType) other).structType);
+                equal = ((StructType) self).id == ((StructType) other).id;
             }
         } catch (Exception e) {}
         
@@ -3,7 +3,7 @@ package ast;
 public class TypecastExpr extends Expr {
 
     public final Type t;
-    public final Expr expr;
+    public Expr expr;
 
     public TypecastExpr(Type t, Expr expr) {
         this.t = t;
@@ -2,7 +2,7 @@ package ast;
 
 public class ValueAtExpr extends Expr {
 
-    public final Expr expr;
+    public Expr expr;
 
     public ValueAtExpr(Expr expr) {
         this.expr = expr;
@@ -4,12 +4,14 @@ public class VarDecl implements ASTNode {
 
     public final Type type;
     public final String name;
+    public final int id; // interned name
     public boolean global = false;
     public int offset;
 
-    public VarDecl(Type type, String name) {
+    public VarDecl(Type type, String name, int id) {
 	    this.type = type;
 	    this.name = name;
+	    this.id = id;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
@@ -2,10 +2,12 @@ package ast;
 
 public class VarExpr extends Expr {
     public final String name;
+    public final int id; // interned name
     public VarDecl vd; // to be filled in by the name analyser
 
-    public VarExpr(String name) {
+    public VarExpr(String name, int id) {
         this.name = name;
+        this.id = id;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
@@ -2,13 +2,14 @@ package gen;
 
 import ast.*;
 import sem.Scope;
+import util.PassTimer;
+import util.Position;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.EmptyStackException;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Stack;
 import java.util.Map.Entry;
@@ -16,56 +17,88 @@ import java.util.Map.Entry;
 public class CodeGenerator implements ASTVisitor<Register> {
 
     /*
-     * Simple register allocator.
+     * Simple register allocator. Temporaries come off a stack and go back as
+     * soon as the value in them has been used, so an expression takes as many
+     * as Frame counts for it, and where that is more than are free the values
+     * held meanwhile are spilled (see spillFor). There are no live intervals
+     * here, linear scan is done only by the IR backend (ir.LinearScan, -ir).
      */
 
-    //  write a line to the file (with trailing newline)
+    //  add an instruction to the output
+    public void write(Instruction i) {
+        code.add(i);
+    }
+    public void write(List<Instruction> is) {
+        code.addAll(is);
+    }
+    // verbatim assembly text
     public void write(String s) {
-        writer.write(s + '\n');
+        write(Instruction.text(s));
     }
-    public void write(String s, Object... args) {
-        write(String.format(s, args));
+
+    public void label(Label l) {
+        write(Instruction.label(l));
     }
 
     public void comment(String s) {
-        write("    # " + s);
+        write(Instruction.comment(s));
     }
-    // create a formatted comment
+    // create a formatted comment, formatted only if it is printed
     public void comment(String s, Object... args) {
-        comment(String.format(s, args));
+        write(Instruction.comment(s, args));
     }
 
     public void nl() {
         write("");
     }
 
+    // what follows was generated for this place in the source, see sim.Assembler
+    private void source(Position p) {
+        if (p != null) {
+            comment("@%s", p);
+        }
+    }
+
     // contains all the free temporary registers
     private Stack<Register> freeRegs = new Stack<Register>();
     private ArrayList<Register> regsInUse = new ArrayList<Register>();
 
-    private Stack<Integer> stackOffsets = new Stack<Integer>();
+    /*
+     * A function moves $sp once on entry and once on exit, so everything is at a
+     * fixed offset from it and $fp is not needed. The sizes come from Frame.
+     * From high to low addresses:
+     *   returned struct, stack args   in the caller's outgoing area
+     *   saved registers
+     *   locals          at stack offsets below the saved registers, blocks reuse each other's
+     *   spill slots     values held while an expression too deep for the registers is computed
+     *   outgoing args   stack arguments of any call, plus the slot for a returned struct
+     */
+    // distance from $sp up to the locals' stack offset 0
+    private int frameTop = 0;
+    // distance from $sp up to the first spill slot, and how many slots are taken
+    private int spillBase = 0;
+    private int spills = 0;
+
+    // registers holding the parameters that came in $a0-$a3
+    private LinkedHashMap<VarDecl, Register> paramHomes = new LinkedHashMap<VarDecl, Register>();
 
-    // 'total' stack offset
-    int stackOffset = 0;
-    // offset from last stack offset,
-    // added to stackOffset and reset when entering a new block
+    private Stack<Integer> stackOffsets = new Stack<Integer>();
 
     UIDLabel uidLabel = new UIDLabel();
 
+    // string literals by their source text, each stored once in the data section,
+    // under labels with a '.' so they cannot clash with a MiniC identifier
+    private LinkedHashMap<String, Label> strings = new LinkedHashMap<String, Label>();
+
     public CodeGenerator() {
         freeAllRegisters();
     }
 
-    private class RegisterAllocationError extends Error {}
-
+    // never runs out, whatever does not fit is spilled first, see spillFor
     private Register getRegister() {
-        try {
-            Register r = freeRegs.pop();
-            regsInUse.add(r);
-            return r;
-        } catch (EmptyStackException ese) {
-            throw new RegisterAllocationError(); // no more free registers, bad luck!
-        }
+        Register r = freeRegs.pop();
+        regsInUse.add(r);
+        return r;
     }
 
     // private Register getRegister(Register r) {
@@ -73,38 +106,107 @@ public class CodeGenerator implements ASTVisitor<Register> {
     // }
 
     private void freeRegister(Register reg) {
-        if (Register.tmpRegs.contains(reg)) {
+        // $v0 and the like are not ours, and a register is only freed once
+        if (regsInUse.remove(reg)) {
             freeRegs.push(reg);
-            regsInUse.remove(reg);
         }
     }
 
-    private void restoreUsedRegisters(ArrayList<Register> regs) {
-        for (Register r : regs) {
-            freeRegs.remove(r);
+    // all registers free again, handed out from the end of tmpRegs
+    private void freeAllRegisters() {
+        freeRegs.clear();
+        regsInUse.clear();
+        for (Register r : Register.tmpRegs) {
+            freeRegs.push(r);
         }
-        regsInUse = regs;
-        // freeRegs.removeAll(regs);
     }
 
-    private void freeAllRegisters() {
-        for (Register r : Register.tmpRegs) {
-            freeRegister(r);
+    /*
+     * The registers a body touches when it never has more than n in use at
+     * once. Freed registers go back on top of the stack, so it only reaches
+     * one it has not handed out before once all the others are taken.
+     */
+    private static List<Register> firstHandedOut(int n) {
+        return Register.tmpRegs.subList(Register.tmpRegs.size() - n, Register.tmpRegs.size());
+    }
+
+    // replaces the address in r with the value there, a char is a byte of its word
+    private void load(Register r, Expr e) {
+        if (e.type != null && e.type.size() == 1) {
+            write(Instruction.lb(r, r));
+        } else {
+            write(Instruction.lw(r, r));
+        }
+    }
+
+    // a register of its own for a value, a call's result would not survive the next call in $v0
+    private Register own(Register r) {
+        if (Register.tmpRegs.contains(r)) {
+            return r;
         }
+        Register t = getRegister();
+        write(Instruction.move(t, r));
+        return t;
     }
 
+    // stores a held value in the next spill slot, frees its register and returns the slot
+    private int spill(Register r) {
+        int slot = spillBase + 4 * spills++;
+        comment("spill %s", r);
+        write(Instruction.sw(Register.sp, r, slot));
+        freeRegister(r);
+        return slot;
+    }
 
-    private PrintWriter writer; // use this writer to output the assembly instructions
-    
+    /*
+     * Called before e is computed while r is held. If e needs more registers
+     * than are free (Frame worked that out), r is spilled and its slot
+     * returned, otherwise -1. Slots are taken and given back in stack order.
+     */
+    private int spillFor(Expr e, Register r) {
+        return e.registers > freeRegs.size() ? spill(r) : -1;
+    }
+
+    // the held value back in a register once the expression is done
+    private Register unspill(int slot, Register r) {
+        if (slot < 0) {
+            return r;
+        }
+        spills--;
+        Register t = getRegister();
+        write(Instruction.lw(t, Register.sp, slot));
+        return t;
+    }
+
+
+    private List<Instruction> code = new ArrayList<Instruction>(); // written out once complete
+
+    private final Peephole peephole = new Peephole();
+
+    private PassTimer timer = PassTimer.NONE;
+
+    public Peephole peephole() {
+        return peephole;
+    }
+
+    public void setTimer(PassTimer timer) {
+        this.timer = timer;
+    }
     
     public void emitProgram(Program program, File outputFile) throws FileNotFoundException {
-        writer = new PrintWriter(outputFile);
-        
+        timer.start("simplify");
         ExpressionSimplifier es = new ExpressionSimplifier();
         program.accept(es);
 
+        timer.start("code generation");
         visitProgram(program);
-        writer.close();
+
+        timer.start("peephole");
+        List<Instruction> optimized = peephole.run(code);
+        timer.count("instructions", Instruction.count(optimized));
+        timer.start("output");
+        Instruction.print(optimized, outputFile);
+        timer.stop();
     }
     
     private void writeDataSection() {
@@ -129,6 +231,8 @@ public class CodeGenerator implements ASTVisitor<Register> {
         for (VarDecl vd : p.varDecls) {
             vd.accept(this);
         }
+        // string literals go here once the functions have been generated
+        int stringPool = code.size();
         nl();
 
         writeTextSection();
@@ -146,23 +250,36 @@ public class CodeGenerator implements ASTVisitor<Register> {
         writeHeading("program functions");
 
         for (FunDecl fd : p.funDecls) {
-            if (!fd.name.equals("main")) {
+            if (fd != p.main) {
                 fd.accept(this);
             }    
         }    
 
         // main
-        write("main:");
-        write(Instruction.move(Register.fp, Register.sp));
-        p.main.block.accept(this);
+        label(new Label("main"));
+        source(p.main.position);
+        Frame frame = Frame.of(p.main);
+        frameTop = frame.localsSize + frame.spillSize + frame.outgoingSize;
+        spillBase = frame.outgoingSize;
+        if (frameTop > 0) {
+            write(Instruction.incrementSp(frameTop));
+        }
+        emitBody(p.main, 0);
 
         // write(Instruction.j("exit"));
         // nl();
 
+        source(p.main.position);
         comment("exit");
         write(Instruction.li(Register.v0, 10));
         write(Instruction.syscall());
 
+        List<Instruction> pool = new ArrayList<Instruction>();
+        for (Entry<String, Label> e : strings.entrySet()) {
+            pool.add(Instruction.text(String.format("    %-11s .asciiz \"%s\"", e.getValue() + ":", e.getKey())));
+        }
+        code.addAll(stringPool, pool);
+
         return null;
     }
 
@@ -178,157 +295,147 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
     @Override
     public Register visitBlock(Block b) {
-
-        // stackOffset += frameOffset;
-        // frameOffset = 0;
-        
         for (VarDecl vd : b.vds) {
             // no register return
             vd.accept(this);
         }
 
         for (Stmt s : b.stmts) {
+            source(s.position);
             Register r = s.accept(this);
             freeRegister(r);
         }
-        
         return null;
     }
 
     @Override
     public Register visitFunDecl(FunDecl fd) {
-        // reset the stack
-        // stackOffsets.push(stackOffset);
-        int frameOffset = 0;
-        stackOffset = 0;
-        
         // create the function label
-        write("%s:", fd.name);
+        label(new Label(fd.name));
+        source(fd.position);
 
-        // vars are the first thing to come through
+        Frame frame = Frame.of(fd);
 
-        int returnSize = Type.alignTo4Byte(fd.type.size());
-        // System.out.println("function return type " + fd.type + " has size : " + returnSize);
-        write(Instruction.incrementSp(returnSize));
-        frameOffset += returnSize;
+        ArrayList<Register> regsToSave = new ArrayList<Register>(firstHandedOut(frame.registers));
+        // a leaf keeps $ra, nothing else calls
+        if (frame.makesCalls) {
+            regsToSave.add(Register.ra);
+        }
+        int saveSize = 4 * regsToSave.size();
 
-        ArrayList<Register> regsToSave = new ArrayList<Register>() {{
-            addAll(Register.tmpRegs);
-            add(Register.fp);
-            add(Register.ra);
-        }};
-        
-        write(Instruction.incrementSp(4 * regsToSave.size()));
-        frameOffset += 4 * regsToSave.size();
+        frameTop = frame.localsSize + frame.spillSize + frame.outgoingSize;
+        spillBase = frame.outgoingSize;
+        int frameSize = frameTop + saveSize;
+        if (frameSize > 0) {
+            write(Instruction.incrementSp(frameSize));
+        }
 
-        int regOff = 0;
+        int regOff = frameTop;
         for (Register r : regsToSave) {
             write(Instruction.sw(Register.sp, r, regOff));
             regOff += 4;
         }
         
         int argSize = 0;
-        for (VarDecl param : fd.params) {
+        for (VarDecl param : fd.stackArgs) {
             argSize += Type.alignTo4Byte(param.type.size());
         }
 
-
-        int argOffset = 0;
-        // set the offsets of the args with respect to $fp
-        for (VarDecl param : fd.params) {
-            // subtract 4 to get to params
-            param.offset = frameOffset + argOffset + argSize - 4;
+        int argOffset = argSize;
+        // set the offsets of the args, only those not passed in registers, which sit above the saved registers
+        for (VarDecl param : fd.stackArgs) {
+            // first argument highest, each one whole from its lowest word up
             argOffset -= Type.alignTo4Byte(param.type.size());
+            param.offset = saveSize + argOffset;
         }
 
-        // frameOffset += ar
-
-        // set fp at new stack beginning
-        write(Instruction.move(Register.fp, Register.sp));
-
-        // store used registers
-        ArrayList<Register> inUse = new ArrayList<>();
-        inUse.addAll(regsInUse);
-        freeAllRegisters();
-
-
-        fd.block.accept(this);
-
-        restoreUsedRegisters(inUse);
-        // regsInUse.clear();
-
-        if (fd.returnExpr != null && !fd.returnExpr.isImmediate) {
-            Register src = getRegister();
-            Register target = getRegister();
-            Register tmp = getRegister();
-            comment("copy return to specified stack space src=%s, dst=%s, tmp=%s", src, target, tmp);
-            write(Instruction.addi(target, Register.fp, frameOffset - returnSize));
-            write(Instruction.move(src, Register.v0));
-            write(Instruction.copy(src, target, tmp, fd.type.size()));
-    
-            freeRegister(src);
-            freeRegister(target);
-            freeRegister(tmp);
-        }
+        // a struct is returned in the caller's frame, just above the stack arguments
+        emitBody(fd, frameSize + argSize);
 
+        source(fd.position);
         comment("restore registers");
 
-        // decrement
-        write(Instruction.move(Register.sp, Register.fp));
-
-        regOff = 0;
+        regOff = frameTop;
         for (Register r : regsToSave) {
             write(Instruction.lw(r, Register.sp, regOff));
             regOff += 4;
         }
         
-        write(Instruction.decrementSp(regOff));
-
-        if (fd.returnExpr != null && fd.returnExpr.isImmediate) {
-            write(Instruction.sw(Register.sp, Register.v0));
+        if (frameSize > 0) {
+            write(Instruction.decrementSp(frameSize));
         }
-        write(Instruction.move(Register.v0, Register.sp));
-        // stackOffset = stackOffsets.pop();
-        // write(Instruction.move(Register.fp, Register.sp));
 
-        // restore registers which were in use
+        if (Type.isStructType(fd.type)) {
+            // address of the returned value
+            write(Instruction.addi(Register.v0, Register.sp, argSize));
+        }
 
         // return
         comment("default return even if one exists");
         write(Instruction.jr(Register.ra));
         comment("-------------------- end %s", fd.name);
         nl();
-
-        // all registers here are only local
-        // freeAllRegisters();
-        // stackOffset = stackOffsets.pop();
         
         nl();
-        // reset global stack offset
-        stackOffset = 0;
 
         return null;
     }
 
+    // returnOffset: where a returned struct goes, relative to $sp
+    private void emitBody(FunDecl fd, int returnOffset) {
+        // the order Frame counted on, see firstHandedOut
+        freeAllRegisters();
+
+        // move register arguments out of the way of calls, which need $a0-$a3 themselves
+        paramHomes.clear();
+        for (int i = 0; i < fd.regArgs.size(); i++) {
+            Register home = getRegister();
+            write(Instruction.move(home, Register.paramRegs[i]));
+            paramHomes.put(fd.regArgs.get(i), home);
+        }
+
+        fd.block.accept(this);
+
+        for (Register home : paramHomes.values()) {
+            freeRegister(home);
+        }
+        paramHomes.clear();
+
+        if (fd.returnExpr == null || fd.returnExpr.isImmediate) {
+            // nothing returned, or the value is in $v0 already
+        } else if (Type.isStructType(fd.type)) {
+            Register src = getRegister();
+            Register target = getRegister();
+            Register tmp = getRegister();
+            comment("copy return to specified stack space src=%s, dst=%s, tmp=%s", src, target, tmp);
+            write(Instruction.addi(target, Register.sp, returnOffset));
+            write(Instruction.move(src, Register.v0));
+            write(Instruction.copy(src, target, tmp, fd.type.size()));
+    
+            freeRegister(src);
+            freeRegister(target);
+            freeRegister(tmp);
+        } else {
+            // $v0 has the address of the value, before the frame it may be in is gone
+            switch (fd.type.size()) {
+                case 1: write(Instruction.lb(Register.v0, Register.v0)); break;
+                default: write(Instruction.lw(Register.v0, Register.v0)); break;
+            }
+        }
+    }
+
     @Override
     public Register visitVarDecl(VarDecl vd) {
         if (vd.global) {
             comment(vd.toString());
-            write(Instruction.InstrFmt("%-11s .space %d", vd.name + ":", vd.type.size()));
+            write(String.format("    %-11s .space %d", vd.name + ":", vd.type.size()));
             if (vd.type.size() % 4 != 0) {
                 // align non-word vars to 4 bytes
-                write(Instruction.InstrFmt("%-11s .align 2", ""));
+                write(String.format("    %-11s .align 2", ""));
             }
         } else {
-            // align non-word vars to 4 bytes
-            int size = Type.alignTo4Byte(vd.type.size());
-            stackOffset -= size;
-
-            // save stack offset
-            vd.offset = stackOffset;
-
-            comment("stack space for '%s' => %d bytes", vd.name, size);
-            write(Instruction.incrementSp(size));
+            // the stack offset was set by Frame
+            comment("stack space for '%s' => %d bytes at (%d)", vd.name, Type.alignTo4Byte(vd.type.size()), vd.offset);
         }
         return null;
     }
@@ -336,13 +443,17 @@ public class CodeGenerator implements ASTVisitor<Register> {
     @Override
     public Register visitVarExpr(VarExpr v) {
         Register r = getRegister();
-        if (v.vd.global) {
+        Register home = paramHomes.get(v.vd);
+        if (home != null) {
+            // a copy, users of the result are free to clobber it
+            write(Instruction.move(r, home));
+        } else if (v.vd.global) {
             // load global variable from label
             write(Instruction.la(r, v.name));
         } else {
             // load from stack
-            comment("load '%s' at $fp offset (%d)", v.name, v.vd.offset);
-            write(Instruction.la(r, Register.fp, v.vd.offset));
+            comment("load '%s' at stack offset (%d)", v.name, v.vd.offset);
+            write(Instruction.la(r, Register.sp, frameTop + v.vd.offset));
         }
         return r;        
     }
@@ -371,8 +482,13 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
     @Override
     public Register visitStrLiteral(StrLiteral s) {
+        Label l = strings.get(s.value);
+        if (l == null) {
+            l = new Label("str." + strings.size());
+            strings.put(s.value, l);
+        }
         Register r = getRegister();
-        write(Instruction.InstrFmt("load_str_lit(%s, \"%s\")", r, s.value));
+        write(Instruction.la(r, l));
         return r;
     }
 
@@ -383,6 +499,16 @@ public class CodeGenerator implements ASTVisitor<Register> {
         return r;
     }
 
+    // copies a struct from the address in r to the outgoing area, word by word
+    private void copyStruct(Register r, int offset, int size) {
+        Register tmp = getRegister();
+        for (int w = 0; w < size; w += 4) {
+            write(Instruction.lw(tmp, r, w));
+            write(Instruction.sw(Register.sp, tmp, offset + w));
+        }
+        freeRegister(tmp);
+    }
+
     @Override
     public Register visitFunCallExpr(FunCallExpr fce) {
         comment("%s () [immediate=%s]", fce.name, fce.isImmediate);
@@ -394,34 +520,108 @@ public class CodeGenerator implements ASTVisitor<Register> {
                 for (Expr arg : fce.args) {
                     Register r = arg.accept(this);
                     if (!arg.isImmediate) {
-                        write(Instruction.lw(r, r));
+                        load(r, arg);
                     }
                     args.add(r.toString());
                     freeRegister(r);
                 }
             }
             
-            write(Instruction.InstrFmt("%s (%s)", fce.name, String.join(", ", args)));
+            write(Instruction.macro(fce.name + " (" + String.join(", ", args) + ")"));
         } else {
-
-            for (Expr arg : fce.args) {
-                // address (int*) // 4
-                // char arr[14]; // 16
+            // arguments are held until every one is evaluated, a call among
+            // them would overwrite $a0-$a3 and the outgoing argument area
+            int n = fce.args.size();
+            Register[] held = new Register[n];
+            int[] slots = new int[n];
+            Arrays.fill(slots, -1);
+
+            for (int k = 0; k < n; k++) {
+                Expr arg = fce.args.get(k);
+                if (arg.registers > freeRegs.size()) {
+                    // too few registers left for this one, the arguments so far wait in the frame
+                    for (int j = 0; j < k; j++) {
+                        if (held[j] != null) {
+                            slots[j] = spill(held[j]);
+                            held[j] = null;
+                        }
+                    }
+                }
 
                 // get a register with the address
                 Register r = arg.accept(this);
-                int size = Type.alignTo4Byte(arg.type.size());
 
-                write(Instruction.incrementSp(size));
+                if (!arg.isImmediate && !Type.isStructType(arg.type)) {
+                    load(r, arg);
+                }
+                held[k] = own(r);
+            }
+
+            int argSize = 0;
+            for (VarDecl param : fce.fd.stackArgs) {
+                argSize += Type.alignTo4Byte(param.type.size());
+            }
 
-                // offset where this expr is stored is equal to the param's vd.offset
-                comment("store %s at $sp", arg);
-                if (!arg.isImmediate) {
-                    write(Instruction.lw(r, r));
+            // where each argument goes: $a0-$a3 in order, the rest laid out the
+            // way the callee numbers its parameters, first argument highest
+            Register[] argRegs = new Register[n];
+            VarDecl[] params = new VarDecl[n];
+            int[] argOffsets = new int[n];
+            int argOffset = argSize;
+            int regArgs = 0;
+            int stackArgs = 0;
+            for (int k = 0; k < n; k++) {
+                if (fce.regArgs.contains(fce.args.get(k)) && regArgs < Register.paramRegs.length) {
+                    argRegs[k] = Register.paramRegs[regArgs++];
+                } else {
+                    params[k] = fce.fd.stackArgs.get(stackArgs++);
+                    argOffset -= Type.alignTo4Byte(params[k].type.size());
+                    // where the callee finds the parameter, see its offset in visitFunDecl
+                    argOffsets[k] = argOffset;
+                }
+            }
+
+            // the ones in registers first, which frees them for the struct
+            // copies and for the ones in the frame
+            for (int k = 0; k < n; k++) {
+                if (held[k] != null && (params[k] == null || !Type.isStructType(params[k].type))) {
+                    if (argRegs[k] != null) {
+                        write(Instruction.move(argRegs[k], held[k]));
+                    } else {
+                        write(Instruction.sw(Register.sp, held[k], argOffsets[k]));
+                    }
+                    freeRegister(held[k]);
+                    held[k] = null;
+                }
+            }
+            for (int k = 0; k < n; k++) {
+                if (held[k] != null) {
+                    if (freeRegs.isEmpty()) {
+                        // no register to copy through, placed from the frame with the others
+                        slots[k] = spill(held[k]);
+                    } else {
+                        copyStruct(held[k], argOffsets[k], params[k].type.size());
+                        freeRegister(held[k]);
+                    }
+                    held[k] = null;
+                }
+            }
+            // every register is free again but for the parameter homes
+            for (int k = 0; k < n; k++) {
+                if (slots[k] >= 0 && argRegs[k] != null) {
+                    write(Instruction.lw(argRegs[k], Register.sp, slots[k]));
+                    spills--;
+                } else if (slots[k] >= 0) {
+                    Register r = getRegister();
+                    write(Instruction.lw(r, Register.sp, slots[k]));
+                    spills--;
+                    if (Type.isStructType(params[k].type)) {
+                        copyStruct(r, argOffsets[k], params[k].type.size());
+                    } else {
+                        write(Instruction.sw(Register.sp, r, argOffsets[k]));
+                    }
+                    freeRegister(r);
                 }
-                write(Instruction.sw(Register.sp, r));
-                // write(Instruction.move(Register.paramRegs[a], r));
-                freeRegister(r);
             }
 
             nl();
@@ -437,98 +637,267 @@ public class CodeGenerator implements ASTVisitor<Register> {
         return Register.v0;
     }
 
+    /*
+     * Jumps to label when cond is (jumpIf) true and falls through otherwise.
+     * Comparisons branch on their operands and && / || become chains of
+     * such branches, so a condition never materialises a 0 or 1.
+     */
+    private void branch(Expr cond, boolean jumpIf, Label label) {
+        if (Expr.isIntLiteral(cond)) {
+            if ((((IntLiteral) cond).value != 0) == jumpIf) {
+                write(Instruction.j(label));
+            }
+            return;
+        }
+
+        if (cond instanceof BinOp) {
+            BinOp bo = (BinOp) cond;
+            switch (bo.op) {
+                case AND:
+                case OR: {
+                    // a jump on the left side settles the whole condition if it goes the same way
+                    boolean settles = (bo.op == Op.OR) == jumpIf;
+                    if (settles) {
+                        branch(bo.left, jumpIf, label);
+                        branch(bo.right, jumpIf, label);
+                    } else {
+                        Label skip = uidLabel.mk("cond_skip");
+                        branch(bo.left, !jumpIf, skip);
+                        branch(bo.right, jumpIf, label);
+                        label(skip);
+                    }
+                    return;
+                }
+                case GT: case LT: case GE: case LE: case NE: case EQ: {
+                    Register l = bo.left.accept(this);
+                    if (!bo.left.isImmediate) {
+                        load(l, bo.left);
+                    }
+                    l = own(l);
+                    int spilled = spillFor(bo.right, l);
+                    Register r = bo.right.accept(this);
+                    if (!bo.right.isImmediate) {
+                        load(r, bo.right);
+                    }
+                    l = unspill(spilled, l);
+
+                    Op op = jumpIf ? bo.op : negate(bo.op);
+                    switch (op) {
+                        case GT : write(Instruction.bgt(l, r, label)); break;
+                        case LT : write(Instruction.blt(l, r, label)); break;
+                        case GE : write(Instruction.bge(l, r, label)); break;
+                        case LE : write(Instruction.ble(l, r, label)); break;
+                        case NE : write(Instruction.bne(l, r, label)); break;
+                        default : write(Instruction.beq(l, r, label)); break;
+                    }
+                    freeRegister(l);
+                    freeRegister(r);
+                    return;
+                }
+                default: break;
+            }
+        }
+
+        Register r = cond.accept(this);
+        if (!cond.isImmediate) {
+            comment("load value of condition from memory");
+            load(r, cond);
+        }
+        if (jumpIf) {
+            write(Instruction.bne(r, Register.zero, label));
+        } else {
+            write(Instruction.beq(r, Register.zero, label));
+        }
+        freeRegister(r);
+    }
+
+    private static Op negate(Op op) {
+        switch (op) {
+            case GT: return Op.LE;
+            case LT: return Op.GE;
+            case GE: return Op.LT;
+            case LE: return Op.GT;
+            case NE: return Op.EQ;
+            case EQ: return Op.NE;
+            default: throw new IllegalArgumentException("not a comparison: " + op);
+        }
+    }
+
+    // dest = src << k
+    private void shift(Register dest, Register src, int k) {
+        if (k != 0) {
+            write(Instruction.sll(dest, src, k));
+        } else if (dest != src) {
+            write(Instruction.move(dest, src));
+        }
+    }
+
+    // dest = src * c, with shifts where one or two of them will do
+    private void multiply(Register dest, Register src, int c) {
+        if (c < 0 && c != Integer.MIN_VALUE) {
+            multiply(dest, src, -c);
+            write(Instruction.subu(dest, Register.zero, dest));
+            return;
+        }
+        if (c == 0) {
+            write(Instruction.move(dest, Register.zero));
+            return;
+        }
+
+        int low = Integer.numberOfTrailingZeros(c);
+        int rest = c & (c - 1);
+        int above = Integer.highestOneBit(c) << 1;
+
+        if (rest == 0) {
+            // 2^a
+            shift(dest, src, low);
+        } else if (Integer.bitCount(rest) == 1) {
+            // 2^a + 2^b
+            Register t = getRegister();
+            shift(t, src, Integer.numberOfTrailingZeros(rest));
+            shift(dest, src, low);
+            write(Instruction.addu(dest, dest, t));
+            freeRegister(t);
+        } else if (above > 0 && Integer.bitCount(above - c) == 1) {
+            // 2^a - 2^b
+            Register t = getRegister();
+            shift(t, src, Integer.numberOfTrailingZeros(above));
+            shift(dest, src, Integer.numberOfTrailingZeros(above - c));
+            write(Instruction.subu(dest, t, dest));
+            freeRegister(t);
+        } else {
+            Register t = getRegister();
+            write(Instruction.li(t, c));
+            write(Instruction.mul(dest, src, t));
+            freeRegister(t);
+        }
+    }
+
+    // dest = src / 2^k or src % 2^k, rounding towards zero like div does
+    private void dividePow2(Register dest, Register src, int k, boolean remainder) {
+        Register t = getRegister();
+        // bias negative numbers by 2^k - 1 before shifting
+        write(Instruction.sra(t, src, 31));
+        write(Instruction.srl(t, t, 32 - k));
+        write(Instruction.addu(t, t, src));
+        if (remainder) {
+            write(Instruction.sra(t, t, k));
+            write(Instruction.sll(t, t, k));
+            write(Instruction.subu(dest, src, t));
+        } else {
+            write(Instruction.sra(dest, t, k));
+        }
+        freeRegister(t);
+    }
+
+    static boolean isPowerOfTwo(int c) {
+        return c > 1 && (c & (c - 1)) == 0;
+    }
+
+    // whether multiply needs a register besides dest and src
+    static boolean multiplyNeedsTemp(int c) {
+        if (c < 0 && c != Integer.MIN_VALUE) {
+            c = -c;
+        }
+        return c != 0 && (c & (c - 1)) != 0;
+    }
+
     @Override
     public Register visitBinOp(BinOp bo) {
-        Register result = getRegister();
         comment(bo.toString());
         comment("------------");
 
+        if (bo.op == Op.MUL || bo.op == Op.DIV || bo.op == Op.MOD) {
+            // one side constant: no need for the multiplier or divider
+            Expr x = null;
+            int c = 0;
+            if (Expr.isIntLiteral(bo.right)) {
+                x = bo.left;
+                c = ((IntLiteral) bo.right).value;
+            } else if (bo.op == Op.MUL && Expr.isIntLiteral(bo.left)) {
+                x = bo.right;
+                c = ((IntLiteral) bo.left).value;
+            }
+
+            if (x != null && (bo.op == Op.MUL || isPowerOfTwo(c))) {
+                // worked out in place
+                Register v = x.accept(this);
+                if (!x.isImmediate) {
+                    load(v, x);
+                }
+                switch (bo.op) {
+                    case MUL: multiply(v, v, c); break;
+                    case DIV: dividePow2(v, v, Integer.numberOfTrailingZeros(c), false); break;
+                    default : dividePow2(v, v, Integer.numberOfTrailingZeros(c), true); break;
+                }
+                return v;
+            }
+        }
+
+        if (bo.op == Op.OR || bo.op == Op.AND) {
+            // 0 or 1 by way of the same branches a condition compiles to,
+            // the result register is only taken once the condition is done with its own
+            Label falseLabel = uidLabel.mk("BinOp_false");
+            Label endLabel = uidLabel.mk("BinOp_end");
+            branch(bo, false, falseLabel);
+            Register result = getRegister();
+            write(Instruction.li(result, 1));
+            write(Instruction.j(endLabel));
+            label(falseLabel);
+            write(Instruction.li(result, 0));
+            label(endLabel);
+            comment("------------");
+            return result;
+        }
+
         comment("left: %s", bo.left);
         Register l = bo.left.accept(this);
-        Register r;
         
         if (!bo.left.isImmediate) {
             comment("load value of left side from memory");
-            write(Instruction.lw(l, l));
+            load(l, bo.left);
         }
+        // the result goes here as well
+        l = own(l);
+
+        int spilled = spillFor(bo.right, l);
+        Register r = bo.right.accept(this);
+        if (!bo.right.isImmediate) {
+            comment("load value of right side from memory");
+            load(r, bo.right);
+        }
+        l = unspill(spilled, l);
 
-        String rightLabel = uidLabel.mk("BinOp_right");
-        String endLabel = uidLabel.mk("BinOp_end");
-        
-        if (bo.op == Op.OR || bo.op == Op.AND) {
-            // cannot accept right side unconditionally
-
-            write(Instruction.sne(result, l, 0));
-
-            switch (bo.op) {
-                // store the result
-                // if 1
-                //   goto next
-                // if 0
-                //   eval right
-                //     if 1:
-                //       goto next
-                //     if 0:
-                //       goto end
-                //   
-                // next:
-                //  "if block"
-                // end:
-                case OR : write(Instruction.beq(result, 1, endLabel)); break;
-                case AND: write(Instruction.beq(result, 0, endLabel)); break;
-                default : break;
-            }
-
-            write(rightLabel + ":");
-
-            r = bo.right.accept(this);
-            if (!bo.right.isImmediate) {
-                comment("load value of right side from memory");
-                write(Instruction.lw(r, r));
-            }
-
-            write(Instruction.sne(result, r, 0));
+        Instruction i = null;
+        switch (bo.op) {
+            // add and store in left register, saving one register
+            case ADD: i = Instruction.addu(l, l, r); break;
+            case SUB: i = Instruction.subu(l, l, r); break;
+            case MUL: i = Instruction.mul(l, l, r); break;
+            case DIV: i = Instruction.div(l, l, r); break;
+            case MOD: i = Instruction.rem(l, l, r); break;
 
-        } else {
-            String i = "";
+            case GT : i = Instruction.sgt(l, l, r); break;
+            case LT : i = Instruction.slt(l, l, r); break;
 
-            r = bo.right.accept(this);
-            if (!bo.right.isImmediate) {
-                comment("load value of right side from memory");
-                write(Instruction.lw(r, r));
-            }
+            case GE : i = Instruction.sge(l, l, r); break;
+            case LE : i = Instruction.sle(l, l, r); break;
 
-            switch (bo.op) {
-                // add and store in left register, saving one register
-                case ADD: i = Instruction.add(result, l, r); break;
-                case SUB: i = Instruction.sub(result, l, r); break;
-                case MUL: i = Instruction.mul(result, l, r); break;
-                case DIV: i = Instruction.div(result, l, r); break;
-                case MOD: i = Instruction.rem(result, l, r); break;
-    
-                case GT : i = Instruction.sgt(result, l, r); break;
-                case LT : i = Instruction.slt(result, l, r); break;
-    
-                case GE : i = Instruction.sge(result, l, r); break;
-                case LE : i = Instruction.sle(result, l, r); break;
-    
-                case NE : i = Instruction.sne(result, l, r); break;
-                case EQ : i = Instruction.seq(result, l, r); break;
-            
-                default: break;
-            }
+            case NE : i = Instruction.sne(l, l, r); break;
+            case EQ : i = Instruction.seq(l, l, r); break;
+        
+            default: break;
+        }
 
+        if (i != null) {
             write(i);
         }
 
-        write(endLabel + ":");
-
         comment("------------");
 
-        freeRegister(l);
         freeRegister(r);
         
-        return result;
+        return l;
     }
 
     @Override
@@ -539,17 +908,19 @@ public class CodeGenerator implements ASTVisitor<Register> {
     @Override
     public Register visitArrayAccessExpr(ArrayAccessExpr aae) {
         comment("array access:");
-        Register r = aae.array.accept(this);
+        Register r = own(aae.array.accept(this));
+        int spilled = spillFor(aae.index, r);
         Register i = aae.index.accept(this);
 
         if (!aae.index.isImmediate) {
             comment("load value from " + i);    
-            write(Instruction.lw(i, i));
+            load(i, aae.index);
         }
+        r = unspill(spilled, r);
 
         int size = aae.type.size();
 
-        write(Instruction.mulo(i, i, size));
+        multiply(i, i, size);
         write(Instruction.add(r, r, i));
 
         freeRegister(i);
@@ -562,7 +933,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
         Register r = fae.struct.accept(this);
 
         StructType st = (StructType) fae.struct.type;
-        write(Instruction.addi(r, r, st.getFieldOffset(fae.field)));
+        write(Instruction.addi(r, r, st.getFieldOffset(fae.fieldId)));
 
         return r;
     }
@@ -593,30 +964,19 @@ public class CodeGenerator implements ASTVisitor<Register> {
     @Override
     public Register visitWhile(While w) {
         comment(w.toString());
-        String loopLabel = uidLabel.mk("while_loop");
-        String endLabel = uidLabel.mk("while_end");
-        
-        // create loop label - return here if condition still hold
-        write(loopLabel + ":");
-
-        // evaluate condition
-        Register r = w.cond.accept(this);
+        Label loopLabel = uidLabel.mk("while_loop");
+        Label condLabel = uidLabel.mk("while_cond");
         
-        if (!w.cond.isImmediate) {
-            comment("load value of if condition from memory");
-            write(Instruction.lw(r, r));
-        }
+        // the condition sits at the bottom, one branch per iteration
+        write(Instruction.j(condLabel));
 
-        // if condition no longer holds, end the loop
-        write(Instruction.beq(r, Register.zero, endLabel));
-        
-        // otherwise, execute
+        // create loop label - return here if condition still hold
+        label(loopLabel);
         w.stmt.accept(this);
-        
-        // loop again
-        write(Instruction.j(loopLabel));
 
-        write(endLabel + ":");
+        label(condLabel);
+        source(w.position);
+        branch(w.cond, true, loopLabel);
         comment("----------");
 
         return null;
@@ -625,10 +985,9 @@ public class CodeGenerator implements ASTVisitor<Register> {
     @Override
     public Register visitIf(If i) {
         comment(i.toString());
-        String endLabel = uidLabel.mk("if_end");
-        String elseLabel = uidLabel.mk("if_else");
-        String next;
-        Register r = i.cond.accept(this);
+        Label endLabel = uidLabel.mk("if_end");
+        Label elseLabel = uidLabel.mk("if_else");
+        Label next;
 
         // if condition is false, go to 'else' (if no else exists, acts as ending condition)
         if (i.elseStmt == null) { 
@@ -636,38 +995,47 @@ public class CodeGenerator implements ASTVisitor<Register> {
         } else { 
             next = elseLabel;
         }
-        
-        if (!i.cond.isImmediate) {
-            comment("load value of if condition from memory");
-            write(Instruction.lw(r, r));
-        }
 
-        write(Instruction.beq(r, Register.zero, next));
+        branch(i.cond, false, next);
 
         // block (if true)
         i.stmt.accept(this);
-        // completed block, skip else
-        write(Instruction.j(endLabel));
 
         // else condition (if false)
         if (i.elseStmt != null) {
-            write(elseLabel + ":");
+            // completed block, skip else
+            write(Instruction.j(endLabel));
+            label(elseLabel);
             // comment("else");
             i.elseStmt.accept(this);
         }
 
-        write(endLabel + ":");
+        label(endLabel);
         comment("----------");
 
-        freeRegister(r);
         return null;
     }
 
     @Override
     public Register visitAssign(Assign a) {
         comment(a.toString());
+
+        if (Expr.isVarExpr(a.left) && paramHomes.containsKey(((VarExpr) a.left).vd)) {
+            // assigning to a parameter that lives in a register
+            Register r = a.right.accept(this);
+            if (!a.right.isImmediate) {
+                switch (a.left.type.size()) {
+                    case 1: write(Instruction.lb(r, r)); break;
+                    default: write(Instruction.lw(r, r)); break;
+                }
+            }
+            write(Instruction.move(paramHomes.get(((VarExpr) a.left).vd), r));
+            freeRegister(r);
+            return null;
+        }
         
-        Register l = a.left.accept(this);
+        Register l = own(a.left.accept(this));
+        int spilled = spillFor(a.right, l);
         Register r = a.right.accept(this);
 
         int size = a.left.type.size();
@@ -683,6 +1051,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
             }
             // write(Instruction.lw(r, r));
         }
+        l = unspill(spilled, l);
 
         switch (size) {
             case 1: write(Instruction.sb(l, r)); break;
@@ -735,6 +1104,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
             // this is the address of the return of the function, so set $v0 to it
             // if (r.expr.isImmediate) {
             write(Instruction.move(Register.v0, rReg));
+            freeRegister(rReg);
             // }
             // if (r.expr.type.size() <= 4) {
             // } else {
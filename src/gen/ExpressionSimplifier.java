@@ -7,6 +7,49 @@ import ast.*;
 
 public class ExpressionSimplifier implements ASTVisitor<Expr> {
 
+    private FunDecl currentFun;
+    // whether the expression just visited contains a call, which must not be folded away
+    private boolean calls = false;
+
+    private static IntLiteral intLiteral(int value) {
+        IntLiteral i = new IntLiteral(value);
+        i.type = BaseType.INT;
+        i.isImmediate = true;
+        return i;
+    }
+
+    // value of an int or char literal, null for anything else
+    private static Integer constant(Expr e) {
+        if (Expr.isIntLiteral(e)) {
+            return ((IntLiteral) e).value;
+        } else if (Expr.isChrLiteral(e)) {
+            return (int) ((ChrLiteral) e).value;
+        }
+        return null;
+    }
+
+    // whether a parameter goes in $a0-$a3 with regCount taken, caller and callee both ask this
+    private static boolean passesInRegister(Type t, int regCount) {
+        // a char / int is loaded onto a register, pointers and structs are used through their stack slot
+        return regCount < 4 && t.size() <= 4 && !Type.isPointerType(t) && !Type.isStructType(t);
+    }
+
+    // e as a truth value, 0 or 1
+    private static Expr truth(Expr e) {
+        if (e instanceof BinOp) {
+            switch (((BinOp) e).op) {
+                case GT: case LT: case GE: case LE:
+                case NE: case EQ: case OR: case AND:
+                    return e;
+                default: break;
+            }
+        }
+        BinOp ne = new BinOp(e, Op.NE, intLiteral(0));
+        ne.type = BaseType.INT;
+        ne.isImmediate = true;
+        return ne;
+    }
+
     @Override
     public Expr visitProgram(Program p) {
         // for (VarDecl vd : p.varDecls) {
@@ -50,11 +93,10 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
 
     @Override
     public Expr visitFunDecl(FunDecl fd) {
+        currentFun = fd;
         
         for (VarDecl p : fd.params) {
-            int size = p.type.size();
-            // can load char / int onto a register
-            if (fd.regArgs.size() < 4 && size <= 4 && !Type.isPointerType(p.type)) {
+            if (passesInRegister(p.type, fd.regArgs.size())) {
                 fd.regArgs.add(p);
             } else {
                 // only addresses of vars should stored on the stack and accessed later
@@ -84,6 +126,10 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
     @Override
     public Expr visitVarExpr(VarExpr v) {
         v.isGlobal = v.vd.global;
+        // parameters passed in $a0-$a3 are kept in a register, read by value
+        if (currentFun != null && currentFun.regArgs.contains(v.vd)) {
+            v.isImmediate = true;
+        }
         return v;
     }
 
@@ -100,6 +146,7 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
         }
 
         fce.args = simplifiedArgs;
+        calls = true;
 
         // for (int i = 0; i < fce.args.size(); i++) {
         //     int size = fce.args.get(i).type.size();
@@ -112,9 +159,7 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
         // }
 
         for (Expr arg : simplifiedArgs) {
-            int size = arg.type.size();
-            // can load char / int onto a register
-            if (fce.regArgs.size() < 4 && size <= 4 && !Type.isPointerType(arg.type)) {
+            if (passesInRegister(arg.type, fce.regArgs.size())) {
                 fce.regArgs.add(arg);
             } else {
                 // only addresses of vars should stored on the stack and accessed later
@@ -122,7 +167,8 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
             }
         }
 
-        fce.isImmediate = LibFunc.isImmediate(fce.name);
+        // only structs come back as an address, everything else is returned in $v0
+        fce.isImmediate = LibFunc.isLibFunc(fce.name) ? LibFunc.isImmediate(fce.name) : !Type.isStructType(fce.type);
         if (fce.fd.returnExpr != null) {
             // whether inside of return is global
             fce.isGlobal = fce.fd.returnExpr.isGlobal;
@@ -133,57 +179,90 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
 
     @Override
     public Expr visitBinOp(BinOp bo) {
+        // the type checker leaves operands of an operator untyped, any of
+        // them can end up in the operator's place below, they are all ints
+        bo.type = BaseType.INT;
+        boolean outerCalls = calls;
+
+        calls = false;
         Expr left = bo.left.accept(this);
+        if (left != null) {
+            bo.left = left;
+        }
+        boolean leftCalls = calls;
+
+        calls = false;
         Expr right = bo.right.accept(this);
+        if (right != null) {
+            bo.right = right;
+        }
+        boolean rightCalls = calls;
 
-        Integer val = null;
+        calls = outerCalls || leftCalls || rightCalls;
 
-        if (Expr.isIntLiteral(left) && Expr.isIntLiteral(right)) {
-            int l = ((IntLiteral) left).value;
-            int r = ((IntLiteral) right).value;
+        Integer l = constant(bo.left);
+        Integer r = constant(bo.right);
 
+        if (l != null && r != null) {
+            // int arithmetic wraps around at 32 bits, as it does on MIPS
+            Integer val = null;
             switch (bo.op) {
                 case ADD: val = l + r; break;
                 case SUB: val = l - r; break;
                 case MUL: val = l * r; break;
-                // no div as no floating point literals exist here directly
-                case DIV: val = l / r; break;
-                case MOD: val = l % r; break;
+                // division by zero is left for run time
+                case DIV: val = r != 0 ? l / r : null; break;
+                case MOD: val = r != 0 ? l % r : null; break;
 
                 case GT : val = l > r ? 1 : 0; break;
                 case LT : val = l < r ? 1 : 0; break;
 
-                case GE : val = l <= r ? 1 : 0; break;
-                case LE : val = l >= r ? 1 : 0; break;
+                case GE : val = l >= r ? 1 : 0; break;
+                case LE : val = l <= r ? 1 : 0; break;
 
-                case NE : val = l != r ? 1 : 0; break;
-                case EQ : val = l == r ? 1 : 0; break;
+                case NE : val = l.intValue() != r.intValue() ? 1 : 0; break;
+                case EQ : val = l.intValue() == r.intValue() ? 1 : 0; break;
 
                 case OR : val = (l != 0 || r != 0) ? 1 : 0; break;
                 case AND: val = (l != 0 && r != 0) ? 1 : 0; break;
             
                 default: break;
             }
-        } else if (Expr.isChrLiteral(left) && Expr.isChrLiteral(right)) {
-            int l = ((ChrLiteral) left).value;
-            int r = ((ChrLiteral) right).value;
+            return val != null ? intLiteral(val) : null;
+        }
 
+        if (l != null) {
+            // constant on the left
             switch (bo.op) {
-                case NE : val = l != r ? 1 : 0; break;
-                case EQ : val = l == r ? 1 : 0; break;
-            
+                case ADD: if (l == 0) return bo.right; break;
+                case MUL: if (l == 1) return bo.right;
+                          if (l == 0 && !rightCalls) return intLiteral(0);
+                          break;
+                case AND: return l == 0 ? intLiteral(0) : truth(bo.right);
+                case OR : return l != 0 ? intLiteral(1) : truth(bo.right);
+                default: break;
+            }
+        } else if (r != null) {
+            // constant on the right, the left side is evaluated first and may have to stay
+            switch (bo.op) {
+                case ADD: case SUB:
+                          if (r == 0) return bo.left;
+                          break;
+                case MUL: if (r == 1) return bo.left;
+                          if (r == 0 && !leftCalls) return intLiteral(0);
+                          break;
+                case DIV: if (r == 1) return bo.left; break;
+                case MOD: if (r == 1 && !leftCalls) return intLiteral(0); break;
+                case AND: if (r != 0) return truth(bo.left);
+                          if (!leftCalls) return intLiteral(0);
+                          break;
+                case OR : if (r == 0) return truth(bo.left);
+                          if (!leftCalls) return intLiteral(1);
+                          break;
                 default: break;
             }
         }
-
-        if (val != null) {
-            IntLiteral i = new IntLiteral(val);
-            i.type = BaseType.INT;
-            i.isImmediate = true;
-            return i;
-        } else {
-            return null;
-        }
+        return null;
     }
 
     @Override
@@ -194,7 +273,10 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
     @Override
     public Expr visitArrayAccessExpr(ArrayAccessExpr aae) {
         aae.array.accept(this);
-        aae.index.accept(this);
+        Expr index = aae.index.accept(this);
+        if (index != null) {
+            aae.index = index;
+        }
         aae.isGlobal = aae.array.isGlobal;
         return null;
     }
@@ -208,7 +290,10 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
 
     @Override
     public Expr visitValueAtExpr(ValueAtExpr vae) {
-        vae.expr.accept(this);
+        Expr e = vae.expr.accept(this);
+        if (e != null) {
+            vae.expr = e;
+        }
         vae.isGlobal = vae.expr.isGlobal;
         return null;
     }
@@ -223,9 +308,10 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
 
     @Override
     public Expr visitTypecastExpr(TypecastExpr te) {
-        // TODO Auto-generated method stub
-        // to simplify!
-        te.expr.accept(this);
+        Expr e = te.expr.accept(this);
+        if (e != null) {
+            te.expr = e;
+        }
         if (te.t == BaseType.INT && Expr.isChrLiteral(te.expr)) {
             IntLiteral i = new IntLiteral(((ChrLiteral) te.expr).value);
             i.type = BaseType.INT;
@@ -233,12 +319,16 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
             return i;
         }
         te.isGlobal = te.expr.isGlobal;
+        te.isImmediate = te.expr.isImmediate || Type.isPointerType(te.t);
         return null;
     }
 
     @Override
     public Expr visitExprStmt(ExprStmt es) {
-        es.expr.accept(this);
+        Expr e = es.expr.accept(this);
+        if (e != null) {
+            es.expr = e;
+        }
         return null;
     }
 
@@ -271,7 +361,10 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
         a.left.accept(this);
         a.left.isGlobal = Expr.getInnermost(a.left).isGlobal;
         
-        a.right.accept(this);
+        Expr e = a.right.accept(this);
+        if (e != null) {
+            a.right = e;
+        }
         a.right.isGlobal = Expr.getInnermost(a.right).isGlobal;
         return null;
     }
@@ -279,7 +372,14 @@ public class ExpressionSimplifier implements ASTVisitor<Expr> {
     @Override
     public Expr visitReturn(Return r) {
         if (r.expr != null) {
-            r.expr.accept(this);
+            Expr e = r.expr.accept(this);
+            if (e != null) {
+                // the epilogue looks at the function's return expression too
+                if (r.fd != null && r.fd.returnExpr == r.expr) {
+                    r.fd.returnExpr = e;
+                }
+                r.expr = e;
+            }
         }
         return null;
     }
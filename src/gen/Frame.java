@@ -0,0 +1,307 @@
+package gen;
+
+import ast.*;
+
+/**
+ * What the frame of one function holds, worked out from its body before any
+ * code is generated (CodeGenerator has the layout):
+ *
+ *   localsSize     the deepest nesting of locals, sibling blocks share space
+ *   outgoingSize   the largest stack argument area of any call, plus the slot
+ *                  for a returned struct
+ *   spillSize      room for the values CodeGenerator spills in a statement
+ *                  that needs more temporaries than there are
+ *   registers      the most temporaries in use at once
+ *   makesCalls     whether $ra has to be saved
+ *
+ * Locals get their stack offsets on the way. Visiting an expression returns
+ * how many temporaries CodeGenerator uses to compute it, also kept in
+ * Expr.registers, so this has to follow what CodeGenerator does.
+ */
+public class Frame implements ASTVisitor<Integer> {
+
+    public int localsSize = 0;
+    public int outgoingSize = 0;
+    public int spillSize = 0;
+    public int registers = 0;
+    public boolean makesCalls = false;
+
+    private final FunDecl fd;
+    // registers holding the parameters that came in $a0-$a3, taken for the whole body
+    private final int homes;
+    private int stackOffset = 0;
+
+    private Frame(FunDecl fd) {
+        this.fd = fd;
+        homes = fd.regArgs.size();
+        registers = homes;
+    }
+
+    public static Frame of(FunDecl fd) {
+        Frame f = new Frame(fd);
+        fd.block.accept(f);
+        if (fd.returnExpr != null && !fd.returnExpr.isImmediate && Type.isStructType(fd.type)) {
+            // copying the returned struct, once the homes are free again
+            f.registers = Math.max(f.registers, 3);
+        }
+        return f;
+    }
+
+    private void statement(int need) {
+        if (homes + need > Register.tmpRegs.size()) {
+            // every value held on the way down may be spilled, never more than need of them
+            spillSize = Math.max(spillSize, 4 * need);
+        }
+        registers = Math.max(registers, Math.min(homes + need, Register.tmpRegs.size()));
+    }
+
+    private static int set(Expr e, int need) {
+        e.registers = need;
+        return need;
+    }
+
+    // what CodeGenerator.branch uses
+    private int condition(Expr cond) {
+        if (Expr.isIntLiteral(cond)) {
+            return 0;
+        }
+        if (cond instanceof BinOp) {
+            BinOp bo = (BinOp) cond;
+            switch (bo.op) {
+                case AND: case OR:
+                    return Math.max(condition(bo.left), condition(bo.right));
+                case GT: case LT: case GE: case LE: case NE: case EQ:
+                    return set(bo, Math.max(bo.left.accept(this), 1 + bo.right.accept(this)));
+                default: break;
+            }
+        }
+        return cond.accept(this);
+    }
+
+    // ------------------- statements ---------------
+
+    @Override
+    public Integer visitBlock(Block b) {
+        int blockOffset = stackOffset;
+        for (VarDecl vd : b.vds) {
+            vd.accept(this);
+        }
+        for (Stmt s : b.stmts) {
+            s.accept(this);
+        }
+        // the locals of this block are dead, the next block can have their space
+        stackOffset = blockOffset;
+        return 0;
+    }
+
+    @Override
+    public Integer visitVarDecl(VarDecl vd) {
+        // align non-word vars to 4 bytes
+        stackOffset -= Type.alignTo4Byte(vd.type.size());
+        localsSize = Math.max(localsSize, -stackOffset);
+        vd.offset = stackOffset;
+        return 0;
+    }
+
+    @Override
+    public Integer visitExprStmt(ExprStmt es) {
+        statement(es.expr.accept(this));
+        return 0;
+    }
+
+    @Override
+    public Integer visitWhile(While w) {
+        statement(condition(w.cond));
+        w.stmt.accept(this);
+        return 0;
+    }
+
+    @Override
+    public Integer visitIf(If i) {
+        statement(condition(i.cond));
+        i.stmt.accept(this);
+        if (i.elseStmt != null) {
+            i.elseStmt.accept(this);
+        }
+        return 0;
+    }
+
+    @Override
+    public Integer visitAssign(Assign a) {
+        int right = a.right.accept(this);
+        if (Expr.isVarExpr(a.left) && fd.regArgs.contains(((VarExpr) a.left).vd)) {
+            // a parameter living in a register
+            statement(right);
+            return 0;
+        }
+        int left = a.left.accept(this);
+        int size = a.left.type.size();
+        // a struct is copied through a third register
+        statement(Math.max(Math.max(left, 1 + right), size != 1 && size != 4 ? 3 : 2));
+        return 0;
+    }
+
+    @Override
+    public Integer visitReturn(Return r) {
+        statement(r.expr != null ? r.expr.accept(this) : 0);
+        return 0;
+    }
+
+    // ------------------- expressions ---------------
+
+    @Override
+    public Integer visitIntLiteral(IntLiteral i) {
+        return set(i, 1);
+    }
+
+    @Override
+    public Integer visitStrLiteral(StrLiteral s) {
+        return set(s, 1);
+    }
+
+    @Override
+    public Integer visitChrLiteral(ChrLiteral c) {
+        return set(c, 1);
+    }
+
+    @Override
+    public Integer visitVarExpr(VarExpr v) {
+        return set(v, 1);
+    }
+
+    @Override
+    public Integer visitFunCallExpr(FunCallExpr fce) {
+        if (LibFunc.isLibFunc(fce.name)) {
+            // each argument is used and freed before the next
+            int need = 1;
+            for (Expr arg : fce.args) {
+                need = Math.max(need, arg.accept(this));
+            }
+            return set(fce, need);
+        }
+
+        makesCalls = true;
+
+        // every argument is held until all are evaluated
+        int need = 1;
+        int held = 0;
+        for (Expr arg : fce.args) {
+            need = Math.max(need, held + arg.accept(this));
+            held++;
+        }
+
+        int argSize = 0;
+        boolean copiesStruct = false;
+        for (VarDecl param : fce.fd.stackArgs) {
+            argSize += Type.alignTo4Byte(param.type.size());
+            copiesStruct |= Type.isStructType(param.type);
+        }
+        if (copiesStruct) {
+            need = Math.max(need, held + 1);
+        }
+        int returnSize = Type.isStructType(fce.fd.type) ? Type.alignTo4Byte(fce.fd.type.size()) : 0;
+        outgoingSize = Math.max(outgoingSize, argSize + returnSize);
+
+        return set(fce, need);
+    }
+
+    @Override
+    public Integer visitBinOp(BinOp bo) {
+        if (bo.op == Op.MUL || bo.op == Op.DIV || bo.op == Op.MOD) {
+            Expr x = null;
+            int c = 0;
+            if (Expr.isIntLiteral(bo.right)) {
+                x = bo.left;
+                c = ((IntLiteral) bo.right).value;
+            } else if (bo.op == Op.MUL && Expr.isIntLiteral(bo.left)) {
+                x = bo.right;
+                c = ((IntLiteral) bo.left).value;
+            }
+
+            if (x != null && (bo.op == Op.MUL || CodeGenerator.isPowerOfTwo(c))) {
+                // worked out in place, maybe with one more register
+                boolean temp = bo.op != Op.MUL || CodeGenerator.multiplyNeedsTemp(c);
+                return set(bo, Math.max(x.accept(this), temp ? 2 : 1));
+            }
+        }
+
+        if (bo.op == Op.OR || bo.op == Op.AND) {
+            return set(bo, Math.max(condition(bo), 1));
+        }
+
+        // the left value is held while the right one is computed
+        int left = bo.left.accept(this);
+        int right = bo.right.accept(this);
+        return set(bo, Math.max(left, 1 + right));
+    }
+
+    @Override
+    public Integer visitArrayAccessExpr(ArrayAccessExpr aae) {
+        int array = aae.array.accept(this);
+        int index = aae.index.accept(this);
+        boolean temp = CodeGenerator.multiplyNeedsTemp(aae.type.size());
+        return set(aae, Math.max(array, 1 + Math.max(index, temp ? 2 : 1)));
+    }
+
+    @Override
+    public Integer visitFieldAccessExpr(FieldAccessExpr fae) {
+        return set(fae, fae.struct.accept(this));
+    }
+
+    @Override
+    public Integer visitValueAtExpr(ValueAtExpr vae) {
+        return set(vae, 1);
+    }
+
+    @Override
+    public Integer visitSizeOfExpr(SizeOfExpr soe) {
+        return set(soe, 1);
+    }
+
+    @Override
+    public Integer visitTypecastExpr(TypecastExpr te) {
+        return set(te, te.expr.accept(this));
+    }
+
+    // ------------------- not in a body ---------------
+
+    @Override
+    public Integer visitProgram(Program p) {
+        return 0;
+    }
+
+    @Override
+    public Integer visitFunDecl(FunDecl fd) {
+        return 0;
+    }
+
+    @Override
+    public Integer visitStructTypeDecl(StructTypeDecl std) {
+        return 0;
+    }
+
+    @Override
+    public Integer visitBaseType(BaseType bt) {
+        return 0;
+    }
+
+    @Override
+    public Integer visitPointerType(PointerType pt) {
+        return 0;
+    }
+
+    @Override
+    public Integer visitStructType(StructType st) {
+        return 0;
+    }
+
+    @Override
+    public Integer visitArrayType(ArrayType at) {
+        return 0;
+    }
+
+    @Override
+    public Integer visitOp(Op o) {
+        return 0;
+    }
+}
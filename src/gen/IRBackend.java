@@ -0,0 +1,349 @@
+package gen;
+
+import ir.BasicBlock;
+import ir.IRFunction;
+import ir.IRProgram;
+import ir.Instr;
+import ir.LinearScan;
+import util.PassTimer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lowers IR to MIPS.
+ *
+ * Experimental, used only with -ir. CodeGenerator stays the default and
+ * most optimisations live there: arguments in $a0-$a3, constant folding,
+ * strength reduction, comparisons branched on directly, the peephole pass,
+ * the string pool and the one-step frame. This backend has its own calling
+ * convention and frame. The gen tests are run through both so they keep
+ * agreeing.
+ *
+ * Virtual registers are given machine registers by linear scan. Those left
+ * without one are spilled to a word in the frame and go through the scratch
+ * registers, loaded right before an instruction reads them and stored right
+ * after it writes them.
+ *
+ * Frame, from high to low addresses:
+ *   arguments      pushed by the caller, first argument lowest
+ *   $ra, $fp       saved by the callee; $fp points at the saved $fp
+ *   locals         IRFunction.frameSize bytes
+ *   saved regs     allocated registers the function writes, callee-saved
+ *   spill slots    4 bytes each
+ */
+public class IRBackend {
+
+    private static final Register a0 = Register.paramRegs[0];
+    // scratch registers for operands and results
+    private static final Register x = Register.tmpRegs.get(0);
+    private static final Register y = Register.tmpRegs.get(1);
+    private static final Register z = Register.tmpRegs.get(2);
+    // everything else is handed out by the allocator
+    private static final List<Register> allocatable = Register.tmpRegs.subList(3, Register.tmpRegs.size());
+
+    private final int registers;
+    private List<Instruction> code;
+    private IRFunction fn;
+    private LinearScan alloc;
+    private int savedRegs;
+    private PassTimer timer = PassTimer.NONE;
+
+    public IRBackend() {
+        this(allocatable.size());
+    }
+
+    // limits the allocator to the first few registers, mostly to exercise spilling
+    public IRBackend(int registers) {
+        this.registers = Math.max(0, Math.min(registers, allocatable.size()));
+    }
+
+    public void setTimer(PassTimer timer) {
+        this.timer = timer;
+    }
+
+    private void write(Instruction i) {
+        code.add(i);
+    }
+
+    private void write(String text) {
+        code.add(Instruction.text(text));
+    }
+
+    private void label(Label l) {
+        code.add(Instruction.label(l));
+    }
+
+    public void emitProgram(IRProgram program, File outputFile) throws FileNotFoundException {
+        timer.start("ir backend");
+        code = new ArrayList<Instruction>();
+
+        write("    .data");
+        for (IRProgram.Global g : program.globals) {
+            write("    .align 2");
+            write(g.label + ": .space " + Math.max(g.size, 4));
+        }
+        for (IRProgram.StringConstant sc : program.strings) {
+            if (sc.value.indexOf('\0') < 0 && sc.value.indexOf('\b') < 0 && sc.value.indexOf('\f') < 0) {
+                write(sc.label + ": .asciiz \"" + escape(sc.value) + "\"");
+            } else {
+                // MARS has no escapes for NUL, \b or \f inside .asciiz, spell the bytes out
+                StringBuilder bytes = new StringBuilder();
+                for (char c : sc.value.toCharArray())
+                    bytes.append((int) c).append(", ");
+                write(sc.label + ": .byte " + bytes + "0");
+            }
+        }
+        write("");
+
+        write("    .text");
+        write("    .globl main");
+        write(Instruction.j("main"));
+        write("");
+
+        for (IRFunction f : program.functions) {
+            emitFunction(f);
+        }
+        timer.count("instructions", Instruction.count(code));
+        timer.start("output");
+        Instruction.print(code, outputFile);
+        timer.stop();
+    }
+
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '\n': sb.append("\\n"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\r': sb.append("\\r"); break;
+                case '"' : sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                default  : sb.append(c); break;
+            }
+        }
+        return sb.toString();
+    }
+
+    // ------------------- functions ---------------
+
+    private int savedSlot(int k) {
+        return -(fn.frameSize + 4 * (k + 1));
+    }
+
+    private int slot(int vreg) {
+        return -(fn.frameSize + 4 * (savedRegs + alloc.spillSlot[vreg] + 1));
+    }
+
+    private Label label(BasicBlock b) {
+        return new Label(fn.name + "_b" + b.id);
+    }
+
+    private Label returnLabel() {
+        return new Label(fn.name + "_ret");
+    }
+
+    private void emitFunction(IRFunction f) {
+        fn = f;
+        alloc = new LinearScan(f, registers);
+        // main never returns, whatever it clobbers is nobody else's
+        savedRegs = f.isMain ? 0 : alloc.registersUsed;
+
+        label(new Label(f.name));
+        write(Instruction.incrementSp(8));
+        write(Instruction.sw(Register.sp, Register.ra, 4));
+        write(Instruction.sw(Register.sp, Register.fp, 0));
+        write(Instruction.move(Register.fp, Register.sp));
+        write(Instruction.incrementSp(f.frameSize + 4 * (savedRegs + alloc.spillCount)));
+        for (int k = 0; k < savedRegs; k++)
+            write(Instruction.sw(Register.fp, allocatable.get(k), savedSlot(k)));
+
+        List<BasicBlock> blocks = f.blocks;
+        for (int k = 0; k < blocks.size(); k++) {
+            BasicBlock next = k + 1 < blocks.size() ? blocks.get(k + 1) : null;
+            label(label(blocks.get(k)));
+            for (Instr i : blocks.get(k).instrs) {
+                emit(i, next);
+            }
+        }
+
+        label(returnLabel());
+        if (f.isMain) {
+            write(Instruction.li(Register.v0, 10));
+            write(Instruction.syscall());
+        } else {
+            for (int k = 0; k < savedRegs; k++)
+                write(Instruction.lw(allocatable.get(k), Register.fp, savedSlot(k)));
+            write(Instruction.move(Register.sp, Register.fp));
+            write(Instruction.lw(Register.fp, Register.sp, 0));
+            write(Instruction.lw(Register.ra, Register.sp, 4));
+            write(Instruction.decrementSp(8));
+            write(Instruction.jr(Register.ra));
+        }
+        write("");
+    }
+
+    // the register holding vreg, loaded into scratch first if it was spilled
+    private Register use(int vreg, Register scratch) {
+        int r = alloc.register[vreg];
+        if (r != -1)
+            return allocatable.get(r);
+        write(Instruction.lw(scratch, Register.fp, slot(vreg)));
+        return scratch;
+    }
+
+    // the register an instruction should write vreg to, see define
+    private Register target(int vreg) {
+        int r = alloc.register[vreg];
+        return r != -1 ? allocatable.get(r) : z;
+    }
+
+    // finishes a write of vreg that went to reg
+    private void define(int vreg, Register reg) {
+        int r = alloc.register[vreg];
+        if (r == -1)
+            write(Instruction.sw(Register.fp, reg, slot(vreg)));
+        else if (allocatable.get(r) != reg)
+            write(Instruction.move(allocatable.get(r), reg));
+    }
+
+    // copies size bytes word by word, clobbers z
+    private void copyWords(Register to, int toOffset, Register from, int size) {
+        for (int k = 0; k < size; k += 4) {
+            write(Instruction.lw(z, from, k));
+            write(Instruction.sw(to, z, toOffset + k));
+        }
+    }
+
+    private void emit(Instr i, BasicBlock next) {
+        Register dst = i.dst != -1 ? target(i.dst) : null;
+        switch (i.op) {
+            case CONST:
+                write(Instruction.li(dst, i.imm));
+                define(i.dst, dst);
+                break;
+            case MOVE: {
+                Register src = use(i.a, x);
+                if (src != dst)
+                    write(Instruction.move(dst, src));
+                define(i.dst, dst);
+                break;
+            }
+            case ADD: case SUB: case MUL: case DIV: case REM:
+            case SLT: case SLE: case SGT: case SGE: case SEQ: case SNE:
+                write(binary(i, dst, use(i.a, x), use(i.b, y)));
+                define(i.dst, dst);
+                break;
+            case LOCAL:
+                write(Instruction.addi(dst, Register.fp, i.imm));
+                define(i.dst, dst);
+                break;
+            case GLOBAL:
+                write(Instruction.la(dst, i.name));
+                define(i.dst, dst);
+                break;
+            case LOADW:
+                write(Instruction.lw(dst, use(i.a, x)));
+                define(i.dst, dst);
+                break;
+            case LOADB:
+                write(Instruction.lb(dst, use(i.a, x)));
+                define(i.dst, dst);
+                break;
+            case STOREW:
+                write(Instruction.sw(use(i.a, x), use(i.b, y)));
+                break;
+            case STOREB:
+                write(Instruction.sb(use(i.a, x), use(i.b, y)));
+                break;
+            case COPY:
+                copyWords(use(i.a, x), 0, use(i.b, y), i.imm);
+                break;
+            case CALL:
+                emitCall(i);
+                break;
+            case JUMP:
+                if (i.target != next)
+                    write(Instruction.j(label(i.target)));
+                break;
+            case BRANCH: {
+                Register cond = use(i.a, x);
+                if (i.target == next) {
+                    write(Instruction.beq(cond, Register.zero, label(i.other)));
+                } else {
+                    write(Instruction.bne(cond, Register.zero, label(i.target)));
+                    if (i.other != next)
+                        write(Instruction.j(label(i.other)));
+                }
+                break;
+            }
+            case RET:
+                if (i.a != -1)
+                    write(Instruction.move(Register.v0, use(i.a, x)));
+                write(Instruction.j(returnLabel()));
+                break;
+        }
+    }
+
+    private static Instruction binary(Instr i, Register dest, Register l, Register r) {
+        switch (i.op) {
+            case ADD: return Instruction.addu(dest, l, r);
+            case SUB: return Instruction.subu(dest, l, r);
+            case MUL: return Instruction.mul(dest, l, r);
+            case DIV: return Instruction.div(dest, l, r);
+            case REM: return Instruction.rem(dest, l, r);
+            case SLT: return Instruction.slt(dest, l, r);
+            case SLE: return Instruction.sle(dest, l, r);
+            case SGT: return Instruction.sgt(dest, l, r);
+            case SGE: return Instruction.sge(dest, l, r);
+            case SEQ: return Instruction.seq(dest, l, r);
+            case SNE: return Instruction.sne(dest, l, r);
+            default : throw new IllegalArgumentException("not a binary instruction: " + i);
+        }
+    }
+
+    private void emitCall(Instr i) {
+        int service = -1;
+        switch (i.name) {
+            case "print_i" : service = 1; break;
+            case "print_s" : service = 4; break;
+            case "read_i"  : service = 5; break;
+            case "mcmalloc": service = 9; break;
+            case "print_c" : service = 11; break;
+            case "read_c"  : service = 12; break;
+            default: break;
+        }
+
+        if (service != -1) {
+            // library function: a system call with at most one argument in $a0
+            if (i.args.length > 0)
+                write(Instruction.move(a0, use(i.args[0], x)));
+            write(Instruction.li(Register.v0, service));
+            write(Instruction.syscall());
+        } else {
+            int total = 0;
+            for (int size : i.argSizes)
+                total += size == 0 ? 4 : size;
+
+            write(Instruction.incrementSp(total));
+            int offset = 0;
+            for (int k = 0; k < i.args.length; k++) {
+                Register arg = use(i.args[k], x);
+                if (i.argSizes[k] == 0) {
+                    write(Instruction.sw(Register.sp, arg, offset));
+                    offset += 4;
+                } else {
+                    copyWords(Register.sp, offset, arg, i.argSizes[k]);
+                    offset += i.argSizes[k];
+                }
+            }
+            write(Instruction.jal(i.name));
+            write(Instruction.decrementSp(total));
+        }
+
+        if (i.dst != -1)
+            define(i.dst, Register.v0);
+    }
+}
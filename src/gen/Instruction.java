@@ -1,238 +1,388 @@
 package gen;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * Instruction
+ * One line of assembly: an instruction and its operands, a label, a comment,
+ * or text passed through as it is (directives, data, macro definitions).
+ *
+ * Nothing is formatted until the program is printed, so passes can look at
+ * and rewrite what was generated.
  */
 public class Instruction {
 
-    public static String InstrFmt(String fmt, Object ...args) {
-        return String.format("    " + fmt, args);
+    // how the operands are laid out when printed
+    private enum Shape {
+        RRR,     // op rd, rs, rt   (or rd, rs, imm without rt)
+        RI,      // op rd, imm
+        RR,      // op rd, rs
+        BRANCH,  // op rs, rt, label   (or rs, imm, label without rt)
+        JUMP,    // op label
+        R,       // op rs
+        LOAD,    // op rd, address
+        STORE,   // op rd, address   (rd is the value stored)
+        NONE,    // op
+        OTHER    // labels, comments, macro calls and verbatim text
+    }
+
+    public enum Opcode {
+        ADD("add", Shape.RRR), ADDU("addu", Shape.RRR), ADDI("addi", Shape.RRR),
+        SUB("sub", Shape.RRR), SUBU("subu", Shape.RRR),
+        MUL("mul", Shape.RRR), DIV("div", Shape.RRR), REM("rem", Shape.RRR),
+        SLL("sll", Shape.RRR), SRA("sra", Shape.RRR), SRL("srl", Shape.RRR),
+        SEQ("seq", Shape.RRR), SNE("sne", Shape.RRR),
+        SLT("slt", Shape.RRR), SLE("sle", Shape.RRR), SGT("sgt", Shape.RRR), SGE("sge", Shape.RRR),
+        BEQ("beq", Shape.BRANCH), BNE("bne", Shape.BRANCH),
+        BLT("blt", Shape.BRANCH), BLE("ble", Shape.BRANCH), BGT("bgt", Shape.BRANCH), BGE("bge", Shape.BRANCH),
+        J("j", Shape.JUMP), JAL("jal", Shape.JUMP), JR("jr", Shape.R),
+        LA("la", Shape.LOAD), LW("lw", Shape.LOAD), LB("lb", Shape.LOAD),
+        SW("sw", Shape.STORE), SB("sb", Shape.STORE),
+        LI("li", Shape.RI), MOVE("move", Shape.RR),
+        SYSCALL("syscall", Shape.NONE),
+        MACRO(null, Shape.OTHER), LABEL(null, Shape.OTHER), COMMENT(null, Shape.OTHER), TEXT(null, Shape.OTHER);
+
+        public final String mnemonic;
+        private final Shape shape;
+
+        Opcode(String mnemonic, Shape shape) {
+            this.mnemonic = mnemonic;
+            this.shape = shape;
+        }
+    }
+
+    public final Opcode op;
+    public final Register rd;   // result, or the value stored
+    public final Register rs;   // first source, or the base of an address
+    public final Register rt;   // second source
+    public final int imm;       // immediate, offset or shift amount
+    public final Label label;   // jump target, or the address of data
+    public final MacroParam param; // inside a macro, names the register with the address
+    public final String text;   // comment, macro call or verbatim text
+    private final Object[] args; // comment arguments, formatted when printed
+
+    private Instruction(Opcode op, Register rd, Register rs, Register rt, int imm, Label label, MacroParam param, String text, Object[] args) {
+        this.op = op;
+        this.rd = rd;
+        this.rs = rs;
+        this.rt = rt;
+        this.imm = imm;
+        this.label = label;
+        this.param = param;
+        this.text = text;
+        this.args = args;
+    }
+
+    private static Instruction rrr(Opcode op, Register d, Register s, Register t) {
+        return new Instruction(op, d, s, t, 0, null, null, null, null);
+    }
+
+    private static Instruction rri(Opcode op, Register d, Register s, int i) {
+        return new Instruction(op, d, s, null, i, null, null, null, null);
+    }
+
+    private static Instruction branch(Opcode op, Register s, Register t, int i, Label label) {
+        return new Instruction(op, null, s, t, i, label, null, null, null);
+    }
+
+    // loads, stores and la: rd and the address base + offset, label + offset or label(base)
+    static Instruction memory(Opcode op, Register r, Register base, int offset, Label label) {
+        return new Instruction(op, r, base, null, offset, label, null, null, null);
+    }
+
+    // ------------------- non-instructions ---------------
+
+    public static Instruction label(Label l) {
+        return new Instruction(Opcode.LABEL, null, null, null, 0, l, null, null, null);
+    }
+
+    public static Instruction comment(String fmt, Object... args) {
+        return new Instruction(Opcode.COMMENT, null, null, null, 0, null, null, fmt, args);
+    }
+
+    // a macro invocation such as "print_i ($t0)"
+    public static Instruction macro(String call) {
+        return new Instruction(Opcode.MACRO, null, null, null, 0, null, null, call, null);
+    }
+
+    // printed exactly as given, may span several lines
+    public static Instruction text(String text) {
+        return new Instruction(Opcode.TEXT, null, null, null, 0, null, null, text, null);
     }
-    
 
-    public static String add(Register dest, Register s, Register t) {
-        return InstrFmt("add  %s, %s, %s", dest, s, t);
+    // comments and blank lines, no effect on the program
+    public boolean isTransparent() {
+        return op == Opcode.COMMENT || (op == Opcode.TEXT && text.isEmpty());
     }
-    
-    public static String addi(Register r, int i) {
+
+    // ------------------- instructions ---------------
+
+    public static Instruction add(Register dest, Register s, Register t) {
+        return rrr(Opcode.ADD, dest, s, t);
+    }
+
+    // add without the overflow trap, wraps around like MiniC ints
+    public static Instruction addu(Register dest, Register s, Register t) {
+        return rrr(Opcode.ADDU, dest, s, t);
+    }
+
+    public static Instruction addi(Register r, int i) {
         return addi(r, r, i);
     }
-    
-    public static String addi(Register dest, Register src, int i) {
-        return InstrFmt("addi %s, %s, %d", dest, src, i);
+
+    public static Instruction addi(Register dest, Register src, int i) {
+        return rri(Opcode.ADDI, dest, src, i);
+    }
+
+    public static Instruction beq(Register s, Register t, Label label) {
+        return branch(Opcode.BEQ, s, t, 0, label);
+    }
+
+    public static Instruction beq(Register r, int i, Label label) {
+        return branch(Opcode.BEQ, r, null, i, label);
+    }
+
+    public static Instruction bne(Register s, Register t, Label label) {
+        return branch(Opcode.BNE, s, t, 0, label);
+    }
+
+    public static Instruction blt(Register s, Register t, Label label) {
+        return branch(Opcode.BLT, s, t, 0, label);
     }
-    
-    public static String beq(Register s, Register t, String label) {
-        return InstrFmt("beq  %s, %s, %s", s, t, label);
+
+    public static Instruction ble(Register s, Register t, Label label) {
+        return branch(Opcode.BLE, s, t, 0, label);
     }
 
-    public static String beq(Register r, int i, String label) {
-        return InstrFmt("beq  %s, %d, %s", r, i, label);
+    public static Instruction bgt(Register s, Register t, Label label) {
+        return branch(Opcode.BGT, s, t, 0, label);
+    }
+
+    public static Instruction bge(Register s, Register t, Label label) {
+        return branch(Opcode.BGE, s, t, 0, label);
     }
 
     // division (integer)
-    public static String div(Register dest, Register s, Register t) {
-        return InstrFmt("div  %s, %s, %s", dest, s, t);
+    public static Instruction div(Register dest, Register s, Register t) {
+        return rrr(Opcode.DIV, dest, s, t);
     }
-    
+
     // modulo
-    public static String rem(Register dest, Register s, Register t) {
-        return InstrFmt("rem  %s, %s, %s", dest, s, t);
+    public static Instruction rem(Register dest, Register s, Register t) {
+        return rrr(Opcode.REM, dest, s, t);
     }
 
 
-    public static String j(String label) {
-        return InstrFmt("j    %s", label);
+    public static Instruction j(Label label) {
+        return branch(Opcode.J, null, null, 0, label);
     }
-    
-    public static String jal(String label) {
-        return InstrFmt("jal  %s", label);
+
+    public static Instruction j(String label) {
+        return j(new Label(label));
     }
-    
-    public static String jr(Register r) {
-        return InstrFmt("jr   %s", r);
+
+    public static Instruction jal(String label) {
+        return branch(Opcode.JAL, null, null, 0, new Label(label));
     }
-    
-    public static String la(Register r, Register address, int offset) {
-        return InstrFmt("la   %s, %d(%s)", r, offset, address);
+
+    public static Instruction jr(Register r) {
+        return branch(Opcode.JR, r, null, 0, null);
     }
 
-    public static String la(Register r, Register address) {
+    public static Instruction la(Register r, Register address, int offset) {
+        return memory(Opcode.LA, r, address, offset, null);
+    }
+
+    public static Instruction la(Register r, Register address) {
         return la(r, address, 0);
     }
 
-    public static String la(Register r, String label) {
-        return la(r, label, false);
+    public static Instruction la(Register r, String label) {
+        return la(r, new Label(label));
     }
 
-    public static String la(Register r, String label, boolean macro) {
-        if (macro) {
-            return InstrFmt("la   %s, (%s)", r, label);
-        } else {
-            return InstrFmt("la   %s, %s", r, label);
-        }
+    public static Instruction la(Register r, Label label) {
+        return memory(Opcode.LA, r, null, 0, label);
     }
 
-    public static String li(Register r, int val) {
-        return InstrFmt("li   %s, %s", r, val);
+    // inside a macro, the address is in the register its parameter is given
+    public static Instruction la(Register r, MacroParam param) {
+        return new Instruction(Opcode.LA, r, null, null, 0, null, param, null, null);
     }
-    
-    public static String lw(Register r, String label) {
-        return InstrFmt("lw   %s, %s", r, label);
+
+    public static Instruction li(Register r, int val) {
+        return rri(Opcode.LI, r, null, val);
     }
 
-    public static String lw(Register r, Register address, int offset) {
-        return InstrFmt("lw   %s, %d(%s)", r, offset, address);
+    public static Instruction lw(Register r, String label) {
+        return memory(Opcode.LW, r, null, 0, new Label(label));
     }
-    
-    public static String lw(Register r, Register address) {
+
+    public static Instruction lw(Register r, Register address, int offset) {
+        return memory(Opcode.LW, r, address, offset, null);
+    }
+
+    public static Instruction lw(Register r, Register address) {
         return lw(r, address, 0);
     }
 
-    
-    public static String lb(Register r, String label) {
-        return InstrFmt("lb   %s, %s", r, label);
+
+    public static Instruction lb(Register r, String label) {
+        return memory(Opcode.LB, r, null, 0, new Label(label));
     }
 
-    public static String lb(Register r, Register address, int offset) {
-        return InstrFmt("lb   %s, %d(%s)", r, offset, address);
+    public static Instruction lb(Register r, Register address, int offset) {
+        return memory(Opcode.LB, r, address, offset, null);
     }
-    
-    public static String lb(Register r, Register address) {
+
+    public static Instruction lb(Register r, Register address) {
         return lb(r, address, 0);
     }
 
 
-    public static String move(Register dest, Register src) {
-        return InstrFmt("move %s, %s", dest, src);
+    public static Instruction move(Register dest, Register src) {
+        return rrr(Opcode.MOVE, dest, src, null);
+    }
+
+
+    public static Instruction mul(Register dest, Register s, Register t) {
+        return rrr(Opcode.MUL, dest, s, t);
+    }
+
+    public static Instruction sll(Register dest, Register src, int shamt) {
+        return rri(Opcode.SLL, dest, src, shamt);
     }
-        
-    
-    public static String mul(Register dest, Register s, Register t) {
-        return InstrFmt("mul  %s, %s, %s", dest, s, t);
+
+    public static Instruction sra(Register dest, Register src, int shamt) {
+        return rri(Opcode.SRA, dest, src, shamt);
     }
 
-    public static String mulo(Register dest, Register src, int i) {
-        return InstrFmt("mulo %s, %s, %s", dest, src, i);
+    public static Instruction srl(Register dest, Register src, int shamt) {
+        return rri(Opcode.SRL, dest, src, shamt);
     }
 
 
 
     // set equal
-    public static String seq(Register t1, Register t2, Register t3) {
-        return InstrFmt("seq  %s, %s, %s", t1, t2, t3);
+    public static Instruction seq(Register t1, Register t2, Register t3) {
+        return rrr(Opcode.SEQ, t1, t2, t3);
     }
     // set equal
-    public static String seq(Register t1, Register t2, int i) {
-        return InstrFmt("seq  %s, %s, %s", t1, t2, i);
+    public static Instruction seq(Register t1, Register t2, int i) {
+        return rri(Opcode.SEQ, t1, t2, i);
     }
 
     // set not equal
-    public static String sne(Register t1, Register t2, Register t3) {
-        return InstrFmt("sne  %s, %s, %s", t1, t2, t3);
+    public static Instruction sne(Register t1, Register t2, Register t3) {
+        return rrr(Opcode.SNE, t1, t2, t3);
     }
-    
+
     // set not equal
-    public static String sne(Register s, Register t, int i) {
-        return InstrFmt("sne  %s, %s, %d", s, t, i);
+    public static Instruction sne(Register s, Register t, int i) {
+        return rri(Opcode.SNE, s, t, i);
     }
 
     // set less than
-    public static String slt(Register t1, Register t2, Register t3) {
-        return InstrFmt("slt  %s, %s, %s", t1, t2, t3);
+    public static Instruction slt(Register t1, Register t2, Register t3) {
+        return rrr(Opcode.SLT, t1, t2, t3);
     }
-    
+
     // set less than or eq
-    public static String sle(Register t1, Register t2, Register t3) {
-        return InstrFmt("sle  %s, %s, %s", t1, t2, t3);
+    public static Instruction sle(Register t1, Register t2, Register t3) {
+        return rrr(Opcode.SLE, t1, t2, t3);
     }
-    
+
     // set greater than
-    public static String sgt(Register t1, Register t2, Register t3) {
-        return InstrFmt("sgt  %s, %s, %s", t1, t2, t3);
+    public static Instruction sgt(Register t1, Register t2, Register t3) {
+        return rrr(Opcode.SGT, t1, t2, t3);
     }
-    
+
     // set greater than or eq
-    public static String sge(Register t1, Register t2, Register t3) {
-        return InstrFmt("sge  %s, %s, %s", t1, t2, t3);
+    public static Instruction sge(Register t1, Register t2, Register t3) {
+        return rrr(Opcode.SGE, t1, t2, t3);
     }
 
 
 
     // subtract
-    public static String sub(Register dest, Register s, Register t) {
-        return InstrFmt("sub  %s, %s, %s", dest, s, t);
+    public static Instruction sub(Register dest, Register s, Register t) {
+        return rrr(Opcode.SUB, dest, s, t);
     }
 
-    
-    public static String sb(Register dest, Register src, int offset) {
-        return InstrFmt("sb   %s, %d(%s)", src, offset, dest);
+    public static Instruction subu(Register dest, Register s, Register t) {
+        return rrr(Opcode.SUBU, dest, s, t);
     }
 
-    public static String sb(Register dest, Register src) {
+
+    public static Instruction sb(Register dest, Register src, int offset) {
+        return memory(Opcode.SB, src, dest, offset, null);
+    }
+
+    public static Instruction sb(Register dest, Register src) {
         return sb(dest, src, 0);
     }
 
-    public static String sb(Register src, String label, Register offset) {
-        return InstrFmt("sb   %s, %s(%s)", src, label, offset);
+    public static Instruction sb(Register src, String label, Register offset) {
+        return memory(Opcode.SB, src, offset, 0, new Label(label));
     }
-    
-    public static String sb(Register src, String label, int offset) {
-        return InstrFmt("sb   %s, %s+%d", src, label, offset);
+
+    public static Instruction sb(Register src, String label, int offset) {
+        return memory(Opcode.SB, src, null, offset, new Label(label));
     }
 
-    public static String sb(Register src, String label) {
+    public static Instruction sb(Register src, String label) {
         return sb(src, label, 0);
     }
 
 
-    public static String sw(Register dest, Register src, int offset) {
-        return InstrFmt("sw   %s, %d(%s)", src, offset, dest);
+    public static Instruction sw(Register dest, Register src, int offset) {
+        return memory(Opcode.SW, src, dest, offset, null);
     }
 
-    public static String sw(Register dest, Register src) {
+    public static Instruction sw(Register dest, Register src) {
         return sw(dest, src, 0);
     }
-    
-    public static String sw(Register src, String label, Register offset) {
-        return InstrFmt("sw   %s, %s(%s)", src, label, offset);
+
+    public static Instruction sw(Register src, String label, Register offset) {
+        return memory(Opcode.SW, src, offset, 0, new Label(label));
     }
-    
-    public static String sw(Register src, String label, int offset) {
-        return InstrFmt("sw   %s, %s+%d", src, label, offset);
+
+    public static Instruction sw(Register src, String label, int offset) {
+        return memory(Opcode.SW, src, null, offset, new Label(label));
     }
 
-    public static String sw(Register src, String label) {
+    public static Instruction sw(Register src, String label) {
         return sw(src, label, 0);
     }
-    
-    public static String syscall() {
-        return InstrFmt("syscall");
+
+    public static Instruction syscall() {
+        return new Instruction(Opcode.SYSCALL, null, null, null, 0, null, null, null, null);
     }
 
 
-    public static String incrementSp(int size) {
+    public static Instruction incrementSp(int size) {
         return addi(Register.sp, Register.sp, -size);
     }
 
-    public static String decrementSp(int size) {
+    public static Instruction decrementSp(int size) {
         return incrementSp(-size);
     }
 
-    public static String copy(Register srcAddress, Register targetAddress, Register tmp, int size) {
-        String ins = "";
+    public static List<Instruction> copy(Register srcAddress, Register targetAddress, Register tmp, int size) {
+        List<Instruction> ins = new ArrayList<Instruction>();
         for (int i = 0; i < size; i += 4) {
-            ins += 
-            Instruction.lw(tmp, srcAddress) + '\n' +
-            Instruction.sw(targetAddress, tmp) + '\n' +
-            Instruction.addi(srcAddress, 4) + '\n' +
-            Instruction.addi(targetAddress, 4) + '\n'
-            ;
+            ins.add(Instruction.lw(tmp, srcAddress));
+            ins.add(Instruction.sw(targetAddress, tmp));
+            ins.add(Instruction.addi(srcAddress, 4));
+            ins.add(Instruction.addi(targetAddress, 4));
         }
         return ins;
     }
-    
-    
+
+
     // public static String incrementFp(int size) {
     //     return addi(Register.fp, Register.fp, -size);
     // }
@@ -241,4 +391,104 @@ public class Instruction {
     //     return incrementSp(-size);
     // }
 
-}
\ No newline at end of file
+    // ------------------- printing ---------------
+
+    private void appendAddress(StringBuilder sb) {
+        if (param != null) {
+            sb.append('(').append(param).append(')');
+        } else if (label != null) {
+            sb.append(label.name);
+            if (rs != null) {
+                sb.append('(').append(rs).append(')');
+            } else if (imm != 0) {
+                sb.append('+').append(imm);
+            }
+        } else {
+            sb.append(imm).append('(').append(rs).append(')');
+        }
+    }
+
+    public void appendTo(StringBuilder sb) {
+        switch (op) {
+            case LABEL:   sb.append(label.name).append(':'); return;
+            case COMMENT: sb.append("    # ").append(args.length == 0 ? text : String.format(text, args)); return;
+            case MACRO:   sb.append("    ").append(text); return;
+            case TEXT:    sb.append(text); return;
+            default: break;
+        }
+
+        sb.append("    ").append(op.mnemonic);
+        if (op.shape == Shape.NONE)
+            return;
+        for (int pad = op.mnemonic.length(); pad < 4; pad++)
+            sb.append(' ');
+        sb.append(' ');
+
+        switch (op.shape) {
+            case RRR:
+                sb.append(rd).append(", ").append(rs).append(", ");
+                if (rt != null) {
+                    sb.append(rt);
+                } else {
+                    sb.append(imm);
+                }
+                break;
+            case RI:
+                sb.append(rd).append(", ").append(imm);
+                break;
+            case RR:
+                sb.append(rd).append(", ").append(rs);
+                break;
+            case BRANCH:
+                sb.append(rs).append(", ");
+                if (rt != null) {
+                    sb.append(rt);
+                } else {
+                    sb.append(imm);
+                }
+                sb.append(", ").append(label.name);
+                break;
+            case JUMP:
+                sb.append(label.name);
+                break;
+            case R:
+                sb.append(rs);
+                break;
+            default:
+                // LOAD and STORE
+                sb.append(rd).append(", ");
+                appendAddress(sb);
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    // how many instructions the program has, labels, comments and macro calls aside
+    public static int count(List<Instruction> code) {
+        int n = 0;
+        for (Instruction i : code) {
+            if (i.op.mnemonic != null)
+                n++;
+        }
+        return n;
+    }
+
+    // writes the program through one buffered writer
+    public static void print(List<Instruction> code, File outputFile) throws FileNotFoundException {
+        PrintWriter writer = new PrintWriter(outputFile);
+        StringBuilder sb = new StringBuilder(64);
+        for (Instruction i : code) {
+            sb.setLength(0);
+            i.appendTo(sb);
+            sb.append('\n');
+            writer.append(sb);
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,28 @@
+package gen;
+
+/**
+ * A name in the assembly: a jump target or the address of some data.
+ */
+public final class Label {
+
+    public final String name;
+
+    public Label(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Label && ((Label) o).name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -51,35 +51,35 @@ public abstract class LibFunc {
     // }
 
     public static String print_i() {
-        String var = "%i";
+        MacroParam var = new MacroParam("%i");
         return 
         "    .macro print_i (" + var + ")\n" +
         "    .text\n" +
-        Instruction.la(Register.paramRegs[0], var, true) + '\n' +
+        Instruction.la(Register.paramRegs[0], var) + '\n' +
         Instruction.li(Register.v0, 1) + '\n' +
         Instruction.syscall() + '\n' +
         "    .end_macro\n";
     }
 
     public static String print_c() {
-        String var = "%c";
+        MacroParam var = new MacroParam("%c");
         return 
         "    .macro print_c (" + var + ")\n" +
         "    .text\n" +
-        Instruction.la(Register.paramRegs[0], var, true) + '\n' +
+        Instruction.la(Register.paramRegs[0], var) + '\n' +
         Instruction.li(Register.v0, 11) + '\n' +
         Instruction.syscall() + '\n' +
         "    .end_macro\n";
     }
 
     public static String print_s() {
-        String var = "%s"; //register
+        MacroParam var = new MacroParam("%s"); //register
         return 
         "    .macro print_s (" + var + ")\n" +
         // "    .data\n" +
         // "string_out: .asciiz " + var + "\n" +
         "    .text\n" +
-        Instruction.la(Register.paramRegs[0], var, true) + '\n' +
+        Instruction.la(Register.paramRegs[0], var) + '\n' +
         Instruction.li(Register.v0, 4) + '\n' +
         Instruction.syscall() + '\n' +
         "    .end_macro\n";
@@ -104,29 +104,16 @@ public abstract class LibFunc {
     }
 
     public static String mcmalloc() {
-        String var = "%m";
+        MacroParam var = new MacroParam("%m");
         return 
         "    .macro mcmalloc (" + var + ")\n" +
         "    .text\n" +
-        Instruction.la(Register.paramRegs[0], var, true) + '\n' +
+        Instruction.la(Register.paramRegs[0], var) + '\n' +
         Instruction.li(Register.v0, 9) + '\n' +
         Instruction.syscall() + '\n' +
         "    .end_macro\n";
     }
 
-    public static String load_str_lit() {
-        String reg = "%r";
-        String var = "%s";
-        return
-        "    .macro load_str_lit (" + reg + "," + var + ")\n" +
-        "    .data\n" +
-        "string: .asciiz " + var + "\n" +
-        "    .text\n" +
-        "    la " + reg + ", string\n" +
-        // Instruction.la(r, "string") +
-        "    .end_macro\n";
-    }
-
     public static String printSysFuncs() {
         return 
         print_i() + "\n" +
@@ -135,7 +122,6 @@ public abstract class LibFunc {
         read_i() + "\n" +
         read_c() + "\n" +
         mcmalloc() + "\n" +
-        load_str_lit() + "\n" +
         "";
     }
 
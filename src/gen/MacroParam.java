@@ -0,0 +1,19 @@
+package gen;
+
+/**
+ * A parameter of a .macro such as "%i", replaced by a register where the
+ * macro is used.
+ */
+public final class MacroParam {
+
+    public final String name;
+
+    public MacroParam(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,213 @@
+package gen;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import gen.Instruction.Opcode;
+
+/**
+ * Peephole optimisation over generated instructions.
+ *
+ * Comments and blank lines are invisible to patterns; labels, macro calls and
+ * verbatim text stop them. Every pattern looks at the instruction at some
+ * index and what follows, and rewrites the list in place, deleted entries
+ * becoming null. Patterns are applied until none matches, counting how often
+ * each one did.
+ */
+public class Peephole {
+
+    public interface Pattern {
+        String name();
+
+        // rewrites code at instruction i if it matches, returns whether it did
+        boolean apply(List<Instruction> code, int i);
+    }
+
+    // index of the first instruction after i that is not transparent, -1 at the end
+    public static int next(List<Instruction> code, int i) {
+        for (int k = i + 1; k < code.size(); k++) {
+            Instruction in = code.get(k);
+            if (in != null && !in.isTransparent())
+                return k;
+        }
+        return -1;
+    }
+
+    public static void delete(List<Instruction> code, int i) {
+        code.set(i, null);
+    }
+
+    private final List<Pattern> patterns;
+    private final Map<String, Integer> hits = new LinkedHashMap<String, Integer>();
+
+    public Peephole() {
+        this(standardPatterns());
+    }
+
+    public Peephole(List<Pattern> patterns) {
+        this.patterns = patterns;
+        for (Pattern p : patterns) {
+            hits.put(p.name(), 0);
+        }
+    }
+
+    public List<Instruction> run(List<Instruction> code) {
+        code = new ArrayList<Instruction>(code);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < code.size(); i++) {
+                if (code.get(i) == null)
+                    continue;
+                for (Pattern p : patterns) {
+                    if (p.apply(code, i)) {
+                        hits.put(p.name(), hits.get(p.name()) + 1);
+                        changed = true;
+                        // the rewritten instruction may match again
+                        i--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<Instruction> out = new ArrayList<Instruction>(code.size());
+        for (Instruction in : code) {
+            if (in != null)
+                out.add(in);
+        }
+        return out;
+    }
+
+    public Map<String, Integer> hits() {
+        return hits;
+    }
+
+    public void report(PrintStream out) {
+        out.println("Peephole rewrites:");
+        for (Map.Entry<String, Integer> e : hits.entrySet()) {
+            out.println(String.format("  %-20s %d", e.getKey(), e.getValue()));
+        }
+    }
+
+    // ------------------- patterns ---------------
+
+    public static List<Pattern> standardPatterns() {
+        return new ArrayList<Pattern>(Arrays.asList(
+            new MergeSpAdjust(),
+            new AddZero(),
+            new SelfMove(),
+            new JumpToNext(),
+            new LoadThroughLa(),
+            new LoadAfterStore()
+        ));
+    }
+
+    private static boolean isSpAdjust(Instruction in) {
+        return in.op == Opcode.ADDI && in.rd == Register.sp && in.rs == Register.sp;
+    }
+
+    private static boolean sameAddress(Instruction a, Instruction b) {
+        return a.rs == b.rs && a.imm == b.imm
+            && (a.label == null ? b.label == null : a.label.equals(b.label));
+    }
+
+    // addi $sp, $sp, a / addi $sp, $sp, b  =>  addi $sp, $sp, a+b
+    static class MergeSpAdjust implements Pattern {
+        public String name() { return "merge-sp-adjust"; }
+
+        public boolean apply(List<Instruction> code, int i) {
+            int j = next(code, i);
+            if (j < 0 || !isSpAdjust(code.get(i)) || !isSpAdjust(code.get(j)))
+                return false;
+            code.set(i, Instruction.addi(Register.sp, Register.sp, code.get(i).imm + code.get(j).imm));
+            delete(code, j);
+            return true;
+        }
+    }
+
+    // addi r, r, 0  =>
+    static class AddZero implements Pattern {
+        public String name() { return "add-zero"; }
+
+        public boolean apply(List<Instruction> code, int i) {
+            Instruction in = code.get(i);
+            if (in.op != Opcode.ADDI || in.rd != in.rs || in.imm != 0)
+                return false;
+            delete(code, i);
+            return true;
+        }
+    }
+
+    // move r, r  =>
+    static class SelfMove implements Pattern {
+        public String name() { return "self-move"; }
+
+        public boolean apply(List<Instruction> code, int i) {
+            Instruction in = code.get(i);
+            if (in.op != Opcode.MOVE || in.rd != in.rs)
+                return false;
+            delete(code, i);
+            return true;
+        }
+    }
+
+    // j L / L:  =>  L:
+    static class JumpToNext implements Pattern {
+        public String name() { return "jump-to-next"; }
+
+        public boolean apply(List<Instruction> code, int i) {
+            Instruction in = code.get(i);
+            if (in.op != Opcode.J)
+                return false;
+            for (int k = next(code, i); k >= 0 && code.get(k).op == Opcode.LABEL; k = next(code, k)) {
+                if (code.get(k).label.equals(in.label)) {
+                    delete(code, i);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // la r, X / lw r, 0(r)  =>  lw r, X
+    static class LoadThroughLa implements Pattern {
+        public String name() { return "load-through-la"; }
+
+        public boolean apply(List<Instruction> code, int i) {
+            Instruction la = code.get(i);
+            int j = next(code, i);
+            if (j < 0 || la.op != Opcode.LA)
+                return false;
+            Instruction load = code.get(j);
+            if ((load.op != Opcode.LW && load.op != Opcode.LB)
+                    || load.rd != la.rd || load.rs != la.rd || load.imm != 0 || load.label != null)
+                return false;
+            code.set(i, Instruction.memory(load.op, la.rd, la.rs, la.imm, la.label));
+            delete(code, j);
+            return true;
+        }
+    }
+
+    // sw r, X / lw r, X  =>  sw r, X
+    static class LoadAfterStore implements Pattern {
+        public String name() { return "load-after-store"; }
+
+        public boolean apply(List<Instruction> code, int i) {
+            Instruction store = code.get(i);
+            int j = next(code, i);
+            if (j < 0 || store.op != Opcode.SW)
+                return false;
+            Instruction load = code.get(j);
+            if (load.op != Opcode.LW || load.rd != store.rd || !sameAddress(load, store))
+                return false;
+            delete(code, j);
+            return true;
+        }
+    }
+}
@@ -42,15 +42,17 @@ public class Register {
 
     private final int num;      // register number
     private final String name;  // register name
+    private final String text;  // as written in assembly
 
 
     private Register(int num, String name) {
         this.num = num;
         this.name = name;
+        this.text = "$"+name;
     }
 
     public String toString() {
-        return "$"+name;
+        return text;
     }
 
 }
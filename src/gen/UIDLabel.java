@@ -8,8 +8,8 @@ public class UIDLabel {
 
     public UIDLabel() {}
 
-    public String mk(String label) {
-        return String.format("%s_%d", label, curr_id++);
+    public Label mk(String label) {
+        return new Label(label + "_" + curr_id++);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight-line run of instructions ending in exactly one terminator.
+ */
+public class BasicBlock {
+
+    public final int id;
+    public final List<Instr> instrs = new ArrayList<>();
+
+    public BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public Instr terminator() {
+        return instrs.isEmpty() ? null : instrs.get(instrs.size() - 1);
+    }
+
+    public boolean isTerminated() {
+        Instr t = terminator();
+        return t != null && t.op.isTerminator();
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
@@ -0,0 +1,493 @@
+package ir;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ast.*;
+
+/**
+ * Lowers a type-checked program to IR.
+ *
+ * Every visit of an expression returns the virtual register holding its value.
+ * For arrays and structs the value is their address. Scalar locals and
+ * parameters (int, char, pointers) live in virtual registers of their own,
+ * since MiniC cannot take their address; arrays, structs and globals live
+ * in memory.
+ */
+public class IRBuilder implements ASTVisitor<Integer> {
+
+    private static final int ARGS_OFFSET = 8; // saved $fp and $ra sit between $fp and the arguments
+
+    private final IRProgram program = new IRProgram();
+
+    // struct declarations indexed by the struct name's id
+    private StructTypeDecl[] structs;
+    private Set<FunDecl> userFunctions;
+    private FunDecl main;
+
+    // per function state
+    private IRFunction fn;
+    private BasicBlock block;
+    private FunDecl currentFun;
+    private int structReturn;   // vreg holding the address for a struct return value, -1 otherwise
+    private final Map<VarDecl, Integer> vregs = new IdentityHashMap<>();
+    private final Map<VarDecl, Integer> frameOffsets = new IdentityHashMap<>();
+    private final Map<String, String> stringLabels = new HashMap<>();
+
+    public static IRProgram build(Program p) {
+        IRBuilder b = new IRBuilder();
+        p.accept(b);
+        return b.program;
+    }
+
+    // ------------------- helpers ---------------
+
+    static String functionLabel(String name) {
+        return name.equals("main") ? "main" : "fun_" + name;
+    }
+
+    static String globalLabel(String name) {
+        return "glob_" + name;
+    }
+
+    private void emit(Instr i) {
+        block.instrs.add(i);
+    }
+
+    private int emitConst(int value) {
+        int r = fn.newVreg();
+        emit(Instr.constant(r, value));
+        return r;
+    }
+
+    // ends the current block with a terminator and continues in next
+    private void terminate(Instr terminator, BasicBlock next) {
+        emit(terminator);
+        block = next;
+    }
+
+    private int sizeOf(Type t) {
+        if (t instanceof StructType)
+            return structs[((StructType) t).id].structSize;
+        if (t instanceof ArrayType) {
+            ArrayType at = (ArrayType) t;
+            return Type.alignTo4Byte(at.size * sizeOf(at.t));
+        }
+        return t.size();
+    }
+
+    private static boolean isScalar(Type t) {
+        return Type.isBaseType(t) || Type.isPointerType(t);
+    }
+
+    // the type checker leaves some of these unset, so work them out here
+    private Type typeOf(Expr e) {
+        if (e instanceof BinOp || e instanceof SizeOfExpr)
+            return BaseType.INT;
+        if (e instanceof ValueAtExpr)
+            return Type.getElemType(typeOf(((ValueAtExpr) e).expr));
+        if (e instanceof TypecastExpr)
+            return ((TypecastExpr) e).t;
+        if (e instanceof FunCallExpr)
+            return ((FunCallExpr) e).fd.type;
+        if (e instanceof FieldAccessExpr) {
+            FieldAccessExpr fae = (FieldAccessExpr) e;
+            StructType st = (StructType) typeOf(fae.struct);
+            return structs[st.id].getFieldType(fae.fieldId);
+        }
+        if (e instanceof VarExpr)
+            return ((VarExpr) e).vd.type;
+        return e.type;
+    }
+
+    private int allocFrame(int size) {
+        fn.frameSize += Type.alignTo4Byte(size);
+        return -fn.frameSize;
+    }
+
+    private int loadIfScalar(int address, Type t) {
+        if (!isScalar(t))
+            return address;
+        int r = fn.newVreg();
+        emit(Instr.load(r, address, sizeOf(t)));
+        return r;
+    }
+
+    // address of an lvalue, or of the storage behind an aggregate value
+    private int address(Expr e) {
+        if (e instanceof VarExpr) {
+            VarDecl vd = ((VarExpr) e).vd;
+            int r = fn.newVreg();
+            if (vd.global)
+                emit(Instr.global(r, globalLabel(vd.name)));
+            else
+                emit(Instr.local(r, frameOffsets.get(vd)));
+            return r;
+        }
+        if (e instanceof ArrayAccessExpr) {
+            ArrayAccessExpr aae = (ArrayAccessExpr) e;
+            int base = aae.array.accept(this);   // arrays evaluate to their address
+            int index = aae.index.accept(this);
+            int scaled = fn.newVreg();
+            emit(Instr.binary(Opcode.MUL, scaled, index, emitConst(sizeOf(Type.getElemType(typeOf(aae.array))))));
+            int r = fn.newVreg();
+            emit(Instr.binary(Opcode.ADD, r, base, scaled));
+            return r;
+        }
+        if (e instanceof FieldAccessExpr) {
+            FieldAccessExpr fae = (FieldAccessExpr) e;
+            int base = fae.struct.accept(this);  // structs evaluate to their address
+            StructType st = (StructType) typeOf(fae.struct);
+            int r = fn.newVreg();
+            emit(Instr.binary(Opcode.ADD, r, base, emitConst(structs[st.id].getFieldOffset(fae.fieldId))));
+            return r;
+        }
+        if (e instanceof ValueAtExpr)
+            return ((ValueAtExpr) e).expr.accept(this);
+        return e.accept(this);
+    }
+
+    // ------------------- program structure ---------------
+
+    @Override
+    public Integer visitProgram(Program p) {
+        structs = new StructTypeDecl[p.names.size()];
+        for (StructTypeDecl std : p.structTypeDecls)
+            structs[std.st.id] = std;
+        userFunctions = Collections.newSetFromMap(new IdentityHashMap<>());
+        userFunctions.addAll(p.funDecls);
+        main = p.main;
+
+        for (VarDecl vd : p.varDecls)
+            program.globals.add(new IRProgram.Global(globalLabel(vd.name), sizeOf(vd.type)));
+        for (FunDecl fd : p.funDecls)
+            fd.accept(this);
+        return null;
+    }
+
+    @Override
+    public Integer visitFunDecl(FunDecl fd) {
+        fn = new IRFunction(functionLabel(fd.name), fd == main);
+        currentFun = fd;
+        vregs.clear();
+        frameOffsets.clear();
+        block = fn.newBlock();
+
+        // arguments as laid out by the caller, a struct result is returned through a hidden first one
+        int offset = ARGS_OFFSET;
+        structReturn = -1;
+        if (Type.isStructType(fd.type)) {
+            structReturn = fn.newVreg();
+            int slot = fn.newVreg();
+            emit(Instr.local(slot, offset));
+            emit(Instr.load(structReturn, slot, 4));
+            offset += 4;
+        }
+        for (VarDecl param : fd.params) {
+            if (isScalar(param.type)) {
+                int slot = fn.newVreg();
+                int r = fn.newVreg();
+                emit(Instr.local(slot, offset));
+                emit(Instr.load(r, slot, 4));
+                vregs.put(param, r);
+                offset += 4;
+            } else {
+                frameOffsets.put(param, offset);
+                offset += Type.alignTo4Byte(sizeOf(param.type));
+            }
+        }
+
+        fd.block.accept(this);
+        if (!block.isTerminated())
+            emit(Instr.ret(-1));
+
+        program.functions.add(fn);
+        return null;
+    }
+
+    @Override
+    public Integer visitVarDecl(VarDecl vd) {
+        // locals only, globals are laid out by visitProgram
+        if (isScalar(vd.type))
+            vregs.put(vd, fn.newVreg());
+        else
+            frameOffsets.put(vd, allocFrame(sizeOf(vd.type)));
+        return null;
+    }
+
+    @Override
+    public Integer visitStructTypeDecl(StructTypeDecl std) {
+        return null;
+    }
+
+    @Override
+    public Integer visitBaseType(BaseType bt) {
+        return null;
+    }
+
+    @Override
+    public Integer visitPointerType(PointerType pt) {
+        return null;
+    }
+
+    @Override
+    public Integer visitStructType(StructType st) {
+        return null;
+    }
+
+    @Override
+    public Integer visitArrayType(ArrayType at) {
+        return null;
+    }
+
+    @Override
+    public Integer visitOp(Op o) {
+        return null;
+    }
+
+    // ------------------- statements ---------------
+
+    @Override
+    public Integer visitBlock(Block b) {
+        for (VarDecl vd : b.vds)
+            vd.accept(this);
+        for (Stmt s : b.stmts)
+            s.accept(this);
+        return null;
+    }
+
+    @Override
+    public Integer visitExprStmt(ExprStmt es) {
+        es.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Integer visitWhile(While w) {
+        BasicBlock cond = fn.newBlock();
+        BasicBlock body = fn.newBlock();
+        BasicBlock end = fn.newBlock();
+
+        terminate(Instr.jump(cond), cond);
+        int c = w.cond.accept(this);
+        terminate(Instr.branch(c, body, end), body);
+        w.stmt.accept(this);
+        terminate(Instr.jump(cond), end);
+        return null;
+    }
+
+    @Override
+    public Integer visitIf(If i) {
+        BasicBlock then = fn.newBlock();
+        BasicBlock otherwise = i.elseStmt != null ? fn.newBlock() : null;
+        BasicBlock end = fn.newBlock();
+
+        int c = i.cond.accept(this);
+        terminate(Instr.branch(c, then, otherwise != null ? otherwise : end), then);
+        i.stmt.accept(this);
+        if (otherwise != null) {
+            terminate(Instr.jump(end), otherwise);
+            i.elseStmt.accept(this);
+        }
+        terminate(Instr.jump(end), end);
+        return null;
+    }
+
+    @Override
+    public Integer visitAssign(Assign a) {
+        Type t = typeOf(a.left);
+        if (a.left instanceof VarExpr && vregs.containsKey(((VarExpr) a.left).vd)) {
+            int value = a.right.accept(this);
+            emit(Instr.move(vregs.get(((VarExpr) a.left).vd), value));
+        } else if (isScalar(t)) {
+            int address = address(a.left);
+            int value = a.right.accept(this);
+            emit(Instr.store(address, value, sizeOf(t)));
+        } else {
+            int address = address(a.left);
+            int value = a.right.accept(this);
+            emit(Instr.copy(address, value, sizeOf(t)));
+        }
+        return null;
+    }
+
+    @Override
+    public Integer visitReturn(Return r) {
+        int value = -1;
+        if (r.expr != null) {
+            value = r.expr.accept(this);
+            if (structReturn != -1) {
+                emit(Instr.copy(structReturn, value, sizeOf(currentFun.type)));
+                value = -1;
+            }
+        }
+        // anything after the return in this block is unreachable, it gets a block of its own
+        terminate(Instr.ret(value), fn.newBlock());
+        return null;
+    }
+
+    // ------------------- expressions ---------------
+
+    @Override
+    public Integer visitIntLiteral(IntLiteral i) {
+        return emitConst(i.value);
+    }
+
+    @Override
+    public Integer visitChrLiteral(ChrLiteral c) {
+        return emitConst(c.value);
+    }
+
+    @Override
+    public Integer visitStrLiteral(StrLiteral s) {
+        String label = stringLabels.get(s.value);
+        if (label == null) {
+            label = "str_" + program.strings.size();
+            stringLabels.put(s.value, label);
+            program.strings.add(new IRProgram.StringConstant(label, unescape(s.value)));
+        }
+        int r = fn.newVreg();
+        emit(Instr.global(r, label));
+        return r;
+    }
+
+    // string literals keep their escapes as written in the source
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            if (c == '\\' && k + 1 < s.length()) {
+                c = s.charAt(++k);
+                switch (c) {
+                    case 't': c = '\t'; break;
+                    case 'b': c = '\b'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 'f': c = '\f'; break;
+                    case '0': c = '\0'; break;
+                    default : break;   // \' \" and \\ stand for themselves
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Integer visitVarExpr(VarExpr v) {
+        Integer r = vregs.get(v.vd);
+        if (r != null)
+            return r;
+        return loadIfScalar(address(v), v.vd.type);
+    }
+
+    @Override
+    public Integer visitBinOp(BinOp bo) {
+        if (bo.op == Op.AND || bo.op == Op.OR)
+            return shortCircuit(bo);
+
+        int l = bo.left.accept(this);
+        int r = bo.right.accept(this);
+        int result = fn.newVreg();
+        emit(Instr.binary(opcode(bo.op), result, l, r));
+        return result;
+    }
+
+    private static Opcode opcode(Op op) {
+        switch (op) {
+            case ADD: return Opcode.ADD;
+            case SUB: return Opcode.SUB;
+            case MUL: return Opcode.MUL;
+            case DIV: return Opcode.DIV;
+            case MOD: return Opcode.REM;
+            case GT : return Opcode.SGT;
+            case LT : return Opcode.SLT;
+            case GE : return Opcode.SGE;
+            case LE : return Opcode.SLE;
+            case NE : return Opcode.SNE;
+            case EQ : return Opcode.SEQ;
+            default : throw new IllegalArgumentException("not a binary operator: " + op);
+        }
+    }
+
+    // the right side only runs when the left one does not decide the result
+    private int shortCircuit(BinOp bo) {
+        BasicBlock right = fn.newBlock();
+        BasicBlock end = fn.newBlock();
+        int result = fn.newVreg();
+
+        int l = bo.left.accept(this);
+        emit(Instr.binary(Opcode.SNE, result, l, emitConst(0)));
+        if (bo.op == Op.OR)
+            terminate(Instr.branch(result, end, right), right);
+        else
+            terminate(Instr.branch(result, right, end), right);
+
+        int r = bo.right.accept(this);
+        emit(Instr.binary(Opcode.SNE, result, r, emitConst(0)));
+        terminate(Instr.jump(end), end);
+        return result;
+    }
+
+    @Override
+    public Integer visitArrayAccessExpr(ArrayAccessExpr aae) {
+        return loadIfScalar(address(aae), typeOf(aae));
+    }
+
+    @Override
+    public Integer visitFieldAccessExpr(FieldAccessExpr fae) {
+        return loadIfScalar(address(fae), typeOf(fae));
+    }
+
+    @Override
+    public Integer visitValueAtExpr(ValueAtExpr vae) {
+        return loadIfScalar(address(vae), typeOf(vae));
+    }
+
+    @Override
+    public Integer visitSizeOfExpr(SizeOfExpr soe) {
+        return emitConst(sizeOf(soe.t));
+    }
+
+    @Override
+    public Integer visitTypecastExpr(TypecastExpr te) {
+        // char -> int, array -> pointer and pointer -> pointer all keep the value
+        return te.expr.accept(this);
+    }
+
+    @Override
+    public Integer visitFunCallExpr(FunCallExpr fce) {
+        boolean returnsStruct = Type.isStructType(fce.fd.type);
+        int hidden = returnsStruct ? 1 : 0;
+        int[] args = new int[fce.args.size() + hidden];
+        int[] sizes = new int[args.length];
+
+        int result = -1;
+        if (returnsStruct) {
+            result = fn.newVreg();
+            emit(Instr.local(result, allocFrame(sizeOf(fce.fd.type))));
+            args[0] = result;
+        }
+
+        List<Expr> actuals = fce.args;
+        for (int k = 0; k < actuals.size(); k++) {
+            Expr arg = actuals.get(k);
+            args[k + hidden] = arg.accept(this);
+            Type t = fce.fd.params.get(k).type;
+            sizes[k + hidden] = isScalar(t) ? 0 : Type.alignTo4Byte(sizeOf(t));
+        }
+
+        String callee = userFunctions.contains(fce.fd) ? functionLabel(fce.name) : fce.name;
+        if (returnsStruct || fce.fd.type == BaseType.VOID) {
+            emit(Instr.call(-1, callee, args, sizes));
+        } else {
+            result = fn.newVreg();
+            emit(Instr.call(result, callee, args, sizes));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A function in IR form. Blocks are kept in layout order, the first one is the entry.
+ *
+ * Frame: arguments sit above $fp (from $fp+8, after the saved $fp and $ra),
+ * locals that live in memory (arrays, structs) take frameSize bytes below it.
+ */
+public class IRFunction {
+
+    public final String name;
+    public final boolean isMain;
+    public final List<BasicBlock> blocks = new ArrayList<>();
+    public int vregCount = 0;
+    public int frameSize = 0;
+
+    public IRFunction(String name, boolean isMain) {
+        this.name = name;
+        this.isMain = isMain;
+    }
+
+    public int newVreg() {
+        return vregCount++;
+    }
+
+    public BasicBlock newBlock() {
+        BasicBlock b = new BasicBlock(blocks.size());
+        blocks.add(b);
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(": ").append(vregCount).append(" vregs, frame ").append(frameSize).append('\n');
+        for (BasicBlock b : blocks) {
+            sb.append(b).append(":\n");
+            for (Instr i : b.instrs)
+                sb.append("    ").append(i).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The whole program in IR form: data labels and functions.
+ */
+public class IRProgram {
+
+    public static class Global {
+        public final String label;
+        public final int size;
+
+        public Global(String label, int size) {
+            this.label = label;
+            this.size = size;
+        }
+    }
+
+    public static class StringConstant {
+        public final String label;
+        public final String value;
+
+        public StringConstant(String label, String value) {
+            this.label = label;
+            this.value = value;
+        }
+    }
+
+    public final List<Global> globals = new ArrayList<>();
+    public final List<StringConstant> strings = new ArrayList<>();
+    public final List<IRFunction> functions = new ArrayList<>();
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Global g : globals)
+            sb.append(g.label).append(": ").append(g.size).append(" bytes\n");
+        for (StringConstant s : strings)
+            sb.append(s.label).append(": \"").append(s.value).append("\"\n");
+        for (IRFunction f : functions)
+            sb.append('\n').append(f);
+        return sb.toString();
+    }
+}
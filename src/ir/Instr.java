@@ -0,0 +1,143 @@
+package ir;
+
+/**
+ * A single three-address instruction. Which fields are meaningful depends on
+ * the opcode (see Opcode); unused register fields hold -1.
+ */
+public class Instr {
+
+    public final Opcode op;
+    public final int dst;
+    public final int a;
+    public final int b;
+    public final int imm;
+    public final String name;       // data label or callee
+    public final int[] args;        // call arguments
+    public final int[] argSizes;    // 0 for a value, else bytes copied from the address in the register
+    public BasicBlock target;
+    public BasicBlock other;
+
+    private Instr(Opcode op, int dst, int a, int b, int imm, String name, int[] args, int[] argSizes) {
+        this.op = op;
+        this.dst = dst;
+        this.a = a;
+        this.b = b;
+        this.imm = imm;
+        this.name = name;
+        this.args = args;
+        this.argSizes = argSizes;
+    }
+
+    public static Instr constant(int dst, int value) {
+        return new Instr(Opcode.CONST, dst, -1, -1, value, null, null, null);
+    }
+
+    public static Instr move(int dst, int src) {
+        return new Instr(Opcode.MOVE, dst, src, -1, 0, null, null, null);
+    }
+
+    public static Instr binary(Opcode op, int dst, int a, int b) {
+        return new Instr(op, dst, a, b, 0, null, null, null);
+    }
+
+    public static Instr local(int dst, int offset) {
+        return new Instr(Opcode.LOCAL, dst, -1, -1, offset, null, null, null);
+    }
+
+    public static Instr global(int dst, String label) {
+        return new Instr(Opcode.GLOBAL, dst, -1, -1, 0, label, null, null);
+    }
+
+    public static Instr load(int dst, int address, int size) {
+        return new Instr(size == 1 ? Opcode.LOADB : Opcode.LOADW, dst, address, -1, 0, null, null, null);
+    }
+
+    public static Instr store(int address, int value, int size) {
+        return new Instr(size == 1 ? Opcode.STOREB : Opcode.STOREW, -1, address, value, 0, null, null, null);
+    }
+
+    public static Instr copy(int dstAddress, int srcAddress, int size) {
+        return new Instr(Opcode.COPY, -1, dstAddress, srcAddress, size, null, null, null);
+    }
+
+    public static Instr call(int dst, String name, int[] args, int[] argSizes) {
+        return new Instr(Opcode.CALL, dst, -1, -1, 0, name, args, argSizes);
+    }
+
+    public static Instr jump(BasicBlock target) {
+        Instr i = new Instr(Opcode.JUMP, -1, -1, -1, 0, null, null, null);
+        i.target = target;
+        return i;
+    }
+
+    public static Instr branch(int cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+        Instr i = new Instr(Opcode.BRANCH, -1, cond, -1, 0, null, null, null);
+        i.target = ifTrue;
+        i.other = ifFalse;
+        return i;
+    }
+
+    public static Instr ret(int value) {
+        return new Instr(Opcode.RET, -1, value, -1, 0, null, null, null);
+    }
+
+    // virtual registers read by this instruction
+    public int[] uses() {
+        switch (op) {
+            case CONST:
+            case LOCAL:
+            case GLOBAL:
+            case JUMP:
+                return new int[0];
+            case MOVE:
+            case LOADW:
+            case LOADB:
+            case BRANCH:
+                return new int[] { a };
+            case RET:
+                return a == -1 ? new int[0] : new int[] { a };
+            case CALL:
+                return args;
+            default:
+                return new int[] { a, b };
+        }
+    }
+
+    // virtual register written by this instruction, -1 if none
+    public int def() {
+        return dst;
+    }
+
+    @Override
+    public String toString() {
+        switch (op) {
+            case CONST:  return String.format("v%d = %d", dst, imm);
+            case MOVE:   return String.format("v%d = v%d", dst, a);
+            case LOCAL:  return String.format("v%d = fp%+d", dst, imm);
+            case GLOBAL: return String.format("v%d = &%s", dst, name);
+            case LOADW:
+            case LOADB:  return String.format("v%d = %s [v%d]", dst, op, a);
+            case STOREW:
+            case STOREB: return String.format("%s [v%d] = v%d", op, a, b);
+            case COPY:   return String.format("COPY [v%d] = [v%d], %d", a, b, imm);
+            case CALL: {
+                StringBuilder sb = new StringBuilder();
+                if (dst != -1)
+                    sb.append('v').append(dst).append(" = ");
+                sb.append("CALL ").append(name).append('(');
+                for (int k = 0; k < args.length; k++) {
+                    if (k > 0)
+                        sb.append(", ");
+                    sb.append('v').append(args[k]);
+                    if (argSizes[k] != 0)
+                        sb.append(':').append(argSizes[k]);
+                }
+                return sb.append(')').toString();
+            }
+            case JUMP:   return "JUMP " + target;
+            case BRANCH: return String.format("BRANCH v%d ? %s : %s", a, target, other);
+            case RET:    return a == -1 ? "RET" : "RET v" + a;
+            default:     return String.format("v%d = %s v%d, v%d", dst, op, a, b);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Linear-scan register allocation (Poletto and Sarkar) over the virtual
+ * registers of one function.
+ *
+ * Each virtual register gets a single live interval over the instructions
+ * numbered in block layout order, widened to cover every block it is live
+ * across. Intervals are visited by start point; a register is handed back as
+ * soon as the interval holding it has ended, and when none is free the
+ * interval reaching furthest is spilled to a stack slot.
+ */
+public class LinearScan {
+
+    // register index for each virtual register, -1 when spilled or never used
+    public final int[] register;
+    // spill slot for each virtual register, -1 when it has a register
+    public final int[] spillSlot;
+    public int spillCount = 0;
+    // registers 0 .. registersUsed-1 are used somewhere in the function
+    public int registersUsed = 0;
+
+    private final int[] start;
+    private final int[] end;
+
+    public LinearScan(IRFunction fn, int registers) {
+        int n = fn.vregCount;
+        register = new int[n];
+        spillSlot = new int[n];
+        start = new int[n];
+        end = new int[n];
+        Arrays.fill(register, -1);
+        Arrays.fill(spillSlot, -1);
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+
+        buildIntervals(fn);
+        allocate(registers);
+    }
+
+    private void extend(int v, int pos) {
+        if (pos < start[v])
+            start[v] = pos;
+        if (pos > end[v])
+            end[v] = pos;
+    }
+
+    private void buildIntervals(IRFunction fn) {
+        Liveness live = new Liveness(fn);
+        int pos = 0;
+        for (BasicBlock b : fn.blocks) {
+            int first = pos;
+            for (Instr i : b.instrs) {
+                for (int v : i.uses())
+                    extend(v, pos);
+                if (i.def() != -1)
+                    extend(i.def(), pos);
+                pos++;
+            }
+            if (first == pos)
+                continue;
+            int last = pos - 1;
+
+            BitSet in = live.liveIn[b.id];
+            for (int v = in.nextSetBit(0); v >= 0; v = in.nextSetBit(v + 1))
+                extend(v, first);
+            BitSet out = live.liveOut[b.id];
+            for (int v = out.nextSetBit(0); v >= 0; v = out.nextSetBit(v + 1))
+                extend(v, last);
+        }
+    }
+
+    private void allocate(int registers) {
+        List<Integer> intervals = new ArrayList<>();
+        for (int v = 0; v < register.length; v++) {
+            if (end[v] >= 0)
+                intervals.add(v);
+        }
+        intervals.sort(Comparator.comparingInt(v -> start[v]));
+
+        // active intervals ordered by end point
+        List<Integer> active = new ArrayList<>();
+        boolean[] free = new boolean[registers];
+        Arrays.fill(free, true);
+
+        for (int v : intervals) {
+            // expire intervals that ended before this one starts
+            while (!active.isEmpty() && end[active.get(0)] < start[v]) {
+                free[register[active.remove(0)]] = true;
+            }
+
+            int r = -1;
+            for (int k = 0; k < registers; k++) {
+                if (free[k]) {
+                    r = k;
+                    break;
+                }
+            }
+
+            if (r != -1) {
+                free[r] = false;
+                register[v] = r;
+                insertByEnd(active, v);
+            } else if (!active.isEmpty() && end[active.get(active.size() - 1)] > end[v]) {
+                // the active interval lasting longest gives up its register
+                int victim = active.remove(active.size() - 1);
+                register[v] = register[victim];
+                register[victim] = -1;
+                spillSlot[victim] = spillCount++;
+                insertByEnd(active, v);
+            } else {
+                spillSlot[v] = spillCount++;
+            }
+
+            if (register[v] >= registersUsed)
+                registersUsed = register[v] + 1;
+        }
+    }
+
+    private void insertByEnd(List<Integer> active, int v) {
+        int k = active.size();
+        while (k > 0 && end[active.get(k - 1)] > end[v])
+            k--;
+        active.add(k, v);
+    }
+}
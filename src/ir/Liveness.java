@@ -0,0 +1,71 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Virtual registers live on entry to and exit from each block of a function,
+ * by the usual backwards data-flow iteration.
+ */
+public class Liveness {
+
+    public final BitSet[] liveIn;
+    public final BitSet[] liveOut;
+
+    public Liveness(IRFunction fn) {
+        int n = fn.blocks.size();
+        BitSet[] use = new BitSet[n];
+        BitSet[] def = new BitSet[n];
+        liveIn = new BitSet[n];
+        liveOut = new BitSet[n];
+
+        for (BasicBlock b : fn.blocks) {
+            BitSet u = new BitSet();
+            BitSet d = new BitSet();
+            for (Instr i : b.instrs) {
+                for (int v : i.uses()) {
+                    if (!d.get(v))
+                        u.set(v);
+                }
+                if (i.def() != -1)
+                    d.set(i.def());
+            }
+            use[b.id] = u;
+            def[b.id] = d;
+            liveIn[b.id] = new BitSet();
+            liveOut[b.id] = new BitSet();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = n - 1; k >= 0; k--) {
+                BasicBlock b = fn.blocks.get(k);
+                BitSet out = new BitSet();
+                for (BasicBlock s : successors(b))
+                    out.or(liveIn[s.id]);
+
+                BitSet in = (BitSet) out.clone();
+                in.andNot(def[b.id]);
+                in.or(use[b.id]);
+
+                if (!in.equals(liveIn[b.id]) || !out.equals(liveOut[b.id])) {
+                    liveIn[b.id] = in;
+                    liveOut[b.id] = out;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    public static List<BasicBlock> successors(BasicBlock b) {
+        List<BasicBlock> succ = new ArrayList<>(2);
+        Instr t = b.terminator();
+        if (t != null && t.target != null)
+            succ.add(t.target);
+        if (t != null && t.other != null)
+            succ.add(t.other);
+        return succ;
+    }
+}
@@ -0,0 +1,36 @@
+package ir;
+
+/**
+ * Operations of the three-address IR. Operands are virtual registers.
+ */
+public enum Opcode {
+    CONST,      // dst = imm
+    MOVE,       // dst = a
+
+    ADD, SUB, MUL, DIV, REM,
+    SLT, SLE, SGT, SGE, SEQ, SNE,   // dst = a op b, comparisons give 0 or 1
+
+    LOCAL,      // dst = $fp + imm
+    GLOBAL,     // dst = address of the data label name
+
+    LOADW,      // dst = word at address a
+    LOADB,      // dst = byte at address a
+    STOREW,     // word at address a = b
+    STOREB,     // byte at address a = b
+    COPY,       // imm bytes from address b to address a
+
+    CALL,       // dst = name(args), dst is -1 when the result is unused or void
+
+    // terminators, one at the end of every basic block
+    JUMP,       // goto target
+    BRANCH,     // if a != 0 goto target else goto other
+    RET;        // return a, or nothing when a is -1
+
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RET;
+    }
+
+    public boolean isBinary() {
+        return compareTo(ADD) >= 0 && compareTo(SNE) <= 0;
+    }
+}
@@ -1,20 +1,46 @@
 package lexer;
 
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 /**
  * @author cdubach
+ *
+ * The whole source file is mapped and decoded into a single char buffer up front,
+ * so peek and next are plain index arithmetic. Once the input is exhausted both
+ * return the EOF sentinel instead of throwing.
  */
 public class Scanner {
 
-    private BufferedReader input;
-    private int peeked = -1;
+    // returned by peek/next once there is no more input
+    public static final char EOF = '\uffff';
+
+    // source characters followed by a single EOF sentinel
+    private final char[] buffer;
+    private final int length;
+    private int pos = 0;
 
     private int line = 1;
     private int column = 0;
 
     public Scanner(File source) throws FileNotFoundException {
-        input = new BufferedReader(new FileReader(source));
+        try (FileInputStream in = new FileInputStream(source);
+             FileChannel channel = in.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // decode with the same charset FileReader would use
+            CharBuffer chars = Charset.defaultCharset().decode(mapped);
+            length = chars.remaining();
+            buffer = new char[length + 1];
+            chars.get(buffer, 0, length);
+            buffer[length] = EOF;
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 
@@ -26,31 +52,20 @@ public class Scanner {
         return line;
     }
 
-    public char peek() throws IOException {
-        if (peeked != -1)
-            return (char)peeked;
-
-        int r = input.read();
-        if (r == -1)
-            throw new EOFException();
+    public boolean atEOF() {
+        return pos == length;
+    }
 
-        peeked = r;
-        return (char) r;
+    public char peek() {
+        return buffer[pos];
     }
 
 
-    public char next() throws IOException {
-        char r;
-        if (peeked != -1) {
-            r = (char) peeked;
-            peeked = -1;
-        } else {
-            int i = input.read();
-            if (i == -1)
-                throw new EOFException();
-            r = (char) i;
-        }
+    public char next() {
+        if (pos == length)
+            return EOF;
 
+        char r = buffer[pos++];
         if (r == '\n' || r == '\r') {
             line++;
             column =0;
@@ -60,8 +75,23 @@ public class Scanner {
         return r;
     }
 
-    public void close() throws IOException {
-        input.close();
+    // direct access to the source for the tokeniser, which scans runs of characters in place
+    char[] buffer() {
+        return buffer;
+    }
+
+    int offset() {
+        return pos;
+    }
+
+    // skip n characters known not to contain a line break
+    void skip(int n) {
+        pos += n;
+        column += n;
+    }
+
+    public void close() {
+        // nothing to release, the mapping is dropped once decoded
     }
 
 
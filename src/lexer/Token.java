@@ -77,6 +77,7 @@ public class Token {
 
     public final TokenClass tokenClass;
     public final String data;
+    public final int id; // interned identifier id, -1 for anything but identifiers
     public final Position position;
 
     public Token(TokenClass type, int lineNum, int colNum) {
@@ -84,9 +85,14 @@ public class Token {
     }
 
     public Token (TokenClass tokenClass, String data, int lineNum, int colNum) {
+        this(tokenClass, data, -1, lineNum, colNum);
+    }
+
+    public Token (TokenClass tokenClass, String data, int id, int lineNum, int colNum) {
         assert (tokenClass != null);
         this.tokenClass = tokenClass;
         this.data = data;
+        this.id = id;
         this.position = new Position(lineNum, colNum);
     }
 
@@ -0,0 +1,204 @@
+package lexer;
+
+import java.util.Arrays;
+
+import lexer.Token.TokenClass;
+import util.Interner;
+import util.Position;
+
+/**
+ * Compact token storage: one slot per token across parallel int arrays
+ * (class, start offset, length, line, column, value) instead of a
+ * Token and a Position object each. Tokens are addressed by index, so a
+ * parser can look ahead or back with plain array reads.
+ *
+ * The stream is filled lazily from its Tokeniser as indices are asked for,
+ * which keeps lexing errors interleaved with parsing errors as before.
+ * A stream built with a window is a fixed-size ring: slot i & mask holds
+ * token i, and only the last window tokens stay readable.
+ */
+public class TokenStream {
+
+    private static final TokenClass[] classes = TokenClass.values();
+
+    private final Tokeniser tokeniser;
+    private final char[] source;
+
+    private int[] kind;
+    private int[] start;
+    private int[] length;
+    private int[] line;
+    private int[] column;
+    // identifier id or char literal code, depending on the class
+    private int[] value;
+    // literal text that differs from the source (escapes) and error messages
+    private String[] text;
+    private int size = 0;
+
+    // slot = index & mask; -1 when the arrays grow to hold every token
+    private final int mask;
+
+    private boolean complete = false;
+
+    // keeps every token
+    public TokenStream(Tokeniser tokeniser) {
+        this(tokeniser, 1024, -1);
+    }
+
+    // keeps only the last window tokens (rounded up to a power of two)
+    public TokenStream(Tokeniser tokeniser, int window) {
+        this(tokeniser, ringSize(window), ringSize(window) - 1);
+    }
+
+    private TokenStream(Tokeniser tokeniser, int capacity, int mask) {
+        this.tokeniser = tokeniser;
+        this.source = tokeniser.source();
+        this.mask = mask;
+        kind     = new int[capacity];
+        start    = new int[capacity];
+        length   = new int[capacity];
+        line     = new int[capacity];
+        column   = new int[capacity];
+        value    = new int[capacity];
+        text     = new String[capacity];
+    }
+
+    // lexes the whole input up front
+    public static TokenStream lex(Tokeniser tokeniser) {
+        TokenStream ts = new TokenStream(tokeniser);
+        ts.fill(Integer.MAX_VALUE);
+        return ts;
+    }
+
+    private static int ringSize(int window) {
+        return Integer.highestOneBit(Math.max(window, 2) * 2 - 1);
+    }
+
+    public Interner getNames() {
+        return tokeniser.getNames();
+    }
+
+    public int getErrorCount() {
+        return tokeniser.getErrorCount();
+    }
+
+    /*
+     * Makes sure token i has been lexed (call it before touching the arrays,
+     * since lexing more may replace them), returns the slot holding it:
+     * anything past the end of the input maps onto the final EOF token.
+     * A negative index is a caller's bug, in a ring it would read a live slot.
+     */
+    private int fill(int i) {
+        if (i < 0)
+            throw new IndexOutOfBoundsException("token " + i);
+        while (i >= size && !complete) {
+            if (tokeniser.nextToken(this) == TokenClass.EOF)
+                complete = true;
+        }
+        if (i >= size)
+            i = size - 1;
+        // the ring holds tokens size - kind.length up to size - 1
+        if (mask != -1 && i < size - kind.length)
+            throw new IllegalStateException("token " + i + " is no longer in the lookahead window");
+        return i & mask;
+    }
+
+    // number of tokens lexed so far
+    public int size() {
+        return size;
+    }
+
+    void add(TokenClass tc, int offset, int len, int ln, int col, String data, int id) {
+        if (mask == -1 && size == kind.length) {
+            int n = size * 2;
+            kind     = Arrays.copyOf(kind, n);
+            start    = Arrays.copyOf(start, n);
+            length   = Arrays.copyOf(length, n);
+            line     = Arrays.copyOf(line, n);
+            column   = Arrays.copyOf(column, n);
+            value    = Arrays.copyOf(value, n);
+            text     = Arrays.copyOf(text, n);
+        }
+
+        int v = -1;
+        String t = null;
+        switch (tc) {
+            case IDENTIFIER:   v = id; break;
+            case INT_LITERAL:  break; // the digits are the source text itself
+            case CHAR_LITERAL: v = data.charAt(0); break;
+            default:
+                if (data != null && !data.isEmpty())
+                    t = data;
+                break;
+        }
+
+        int slot = size & mask;
+        kind[slot]     = tc.ordinal();
+        start[slot]    = offset;
+        length[slot]   = len;
+        line[slot]     = ln;
+        column[slot]   = col;
+        value[slot]    = v;
+        text[slot]     = t;
+        size++;
+    }
+
+    public TokenClass tokenClass(int i) {
+        i = fill(i);
+        return classes[kind[i]];
+    }
+
+    public int start(int i) {
+        i = fill(i);
+        return start[i];
+    }
+
+    public int length(int i) {
+        i = fill(i);
+        return length[i];
+    }
+
+    public int line(int i) {
+        i = fill(i);
+        return line[i];
+    }
+
+    public int column(int i) {
+        i = fill(i);
+        return column[i];
+    }
+
+    public Position position(int i) {
+        return new Position(line(i), column(i));
+    }
+
+    // interned id of an identifier token, -1 for anything else
+    public int id(int i) {
+        i = fill(i);
+        return kind[i] == TokenClass.IDENTIFIER.ordinal() ? value[i] : -1;
+    }
+
+    // the same text Token.data would hold
+    public String data(int i) {
+        i = fill(i);
+        switch (classes[kind[i]]) {
+            case IDENTIFIER:   return tokeniser.getNames().name(value[i]);
+            case INT_LITERAL:  return new String(source, start[i], length[i]);
+            case CHAR_LITERAL: return String.valueOf((char) value[i]);
+            default:           return text[i] == null ? "" : text[i];
+        }
+    }
+
+    public Token token(int i) {
+        return new Token(tokenClass(i), data(i), id(i), line(i), column(i));
+    }
+
+    public String toString(int i) {
+        String data = data(i);
+        if (data.equals(""))
+            return tokenClass(i).toString();
+        else
+            return tokenClass(i).toString()+"("+data+")";
+    }
+
+}
@@ -1,9 +1,8 @@
 package lexer;
 
 import lexer.Token.TokenClass;
+import util.Interner;
 
-import java.io.EOFException;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,13 +13,25 @@ public class Tokeniser {
 
     private Scanner scanner;
 
+    // identifiers are interned here and shared with every later phase
+    private final Interner names;
+
     private int error = 0;
     public int getErrorCount() {
 	return this.error;
     }
 
     public Tokeniser(Scanner scanner) {
+        this(scanner, new Interner());
+    }
+
+    public Tokeniser(Scanner scanner, Interner names) {
         this.scanner = scanner;
+        this.names = names;
+    }
+
+    public Interner getNames() {
+        return names;
     }
 
     // more flexible string overload
@@ -33,20 +44,51 @@ public class Tokeniser {
         error(Character.toString(c), line, col);
     }    
 
+    /*
+     * The token being built by next(): where it starts and what it carries.
+     * Kept in fields so the same scanner feeds both Token objects and TokenStreams.
+     */
+    private int tokStart;
+    private int tokLine;
+    private int tokColumn;
+    private String tokData;
+    private int tokId;
+
     public Token nextToken() {
-        Token result;
-        try {
-             result = next();
-        } catch (EOFException eof) {
-            // end of file, nothing to worry about, just return EOF token
-            return new Token(TokenClass.EOF, scanner.getLine(), scanner.getColumn());
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
-            // something went horribly wrong, abort
-            System.exit(-1);
-            return null;
-        }
-        return result;
+        TokenClass tc = next();
+        String data = tokData;
+        if (data == null) // int literals are left as a slice of the source
+            data = new String(scanner.buffer(), tokStart, scanner.offset() - tokStart);
+        return new Token(tc, data, tokId, tokLine, tokColumn);
+    }
+
+    // appends the next token to ts without creating a Token, returns its class
+    TokenClass nextToken(TokenStream ts) {
+        TokenClass tc = next();
+        ts.add(tc, tokStart, scanner.offset() - tokStart, tokLine, tokColumn, tokData, tokId);
+        return tc;
+    }
+
+    char[] source() {
+        return scanner.buffer();
+    }
+
+    private TokenClass token(TokenClass tc, String data, int line, int column) {
+        tokLine = line;
+        tokColumn = column;
+        tokData = data;
+        tokId = -1;
+        return tc;
+    }
+
+    private TokenClass token(TokenClass tc, int line, int column) {
+        return token(tc, "", line, column);
+    }
+
+    private TokenClass identifier(int id, int line, int column) {
+        token(TokenClass.IDENTIFIER, names.name(id), line, column);
+        tokId = id;
+        return TokenClass.IDENTIFIER;
     }
 
     // https://www.baeldung.com/java-initialize-hashmap - section 2.
@@ -62,7 +104,83 @@ public class Tokeniser {
         put('\\', '\\');
     }};
 
-    private Token next() throws IOException {
+    /*
+     * ASCII character classes, one lookup per character instead of the
+     * Character.isXxx calls. Anything outside ASCII falls back to Character.
+     */
+    private static final byte SPACE  = 1;
+    private static final byte LETTER = 2; // includes '_'
+    private static final byte DIGIT  = 4;
+
+    private static final byte[] charClass = new byte[128];
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c))      charClass[c] |= SPACE;
+            if (Character.isLetter(c) || c == '_') charClass[c] |= LETTER;
+            if (Character.isDigit(c))           charClass[c] |= DIGIT;
+        }
+    }
+
+    private static boolean isSpace(char c) {
+        return c < 128 ? (charClass[c] & SPACE) != 0 : Character.isWhitespace(c);
+    }
+
+    private static boolean isIdentStart(char c) {
+        return c < 128 ? (charClass[c] & LETTER) != 0 : Character.isLetter(c);
+    }
+
+    private static boolean isIdentPart(char c) {
+        return c < 128 ? (charClass[c] & (LETTER | DIGIT)) != 0 : Character.isLetterOrDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c < 128 ? (charClass[c] & DIGIT) != 0 : Character.isDigit(c);
+    }
+
+    /*
+     * Perfect hash over the keywords: (first ^ last ^ length) & 15 is distinct
+     * for all nine of them, so a keyword is found with one probe and a compare
+     * against the source buffer, without building a String.
+     */
+    private static final char[][] keywords = new char[16][];
+    private static final TokenClass[] keywordClasses = new TokenClass[16];
+    static {
+        addKeyword("int",    TokenClass.INT);
+        addKeyword("void",   TokenClass.VOID);
+        addKeyword("char",   TokenClass.CHAR);
+        addKeyword("if",     TokenClass.IF);
+        addKeyword("else",   TokenClass.ELSE);
+        addKeyword("while",  TokenClass.WHILE);
+        addKeyword("return", TokenClass.RETURN);
+        addKeyword("struct", TokenClass.STRUCT);
+        addKeyword("sizeof", TokenClass.SIZEOF);
+    }
+
+    private static int keywordHash(char first, char last, int length) {
+        return (first ^ last ^ length) & 15;
+    }
+
+    private static void addKeyword(String kw, TokenClass tc) {
+        int h = keywordHash(kw.charAt(0), kw.charAt(kw.length() - 1), kw.length());
+        assert keywords[h] == null : "keyword hash collision on " + kw;
+        keywords[h] = kw.toCharArray();
+        keywordClasses[h] = tc;
+    }
+
+    // returns the keyword's class, or null if buf[start, start+len) is a plain identifier
+    private static TokenClass keyword(char[] buf, int start, int len) {
+        int h = keywordHash(buf[start], buf[start + len - 1], len);
+        char[] kw = keywords[h];
+        if (kw == null || kw.length != len)
+            return null;
+        for (int i = 0; i < len; i++) {
+            if (kw[i] != buf[start + i])
+                return null;
+        }
+        return keywordClasses[h];
+    }
+
+    private TokenClass next() {
 
         int line = scanner.getLine();
         int column = scanner.getColumn();
@@ -71,39 +189,36 @@ public class Tokeniser {
         char c = scanner.next();
 
         // skip white spaces
-        if (Character.isWhitespace(c))
-            return next();
-
-        //  identifiers, types, keywords
-        if (Character.isLetter(c) || c == '_') {
-            StringBuilder sb = new StringBuilder();
-            sb.append(c);
-            // peek to make sure scanner remains in correct position
-            c = scanner.peek();
+        while (isSpace(c)) {
+            line = scanner.getLine();
+            column = scanner.getColumn();
+            c = scanner.next();
+        }
 
-            while (Character.isLetterOrDigit(c) || c == '_') {
-                sb.append(c);
-                scanner.next();
-                c = scanner.peek();
-            }
+        // end of file, nothing to worry about, just return EOF token
+        if (c == Scanner.EOF && scanner.atEOF()) {
+            tokStart = scanner.offset();
+            return token(TokenClass.EOF, line, column);
+        }
+        tokStart = scanner.offset() - 1;
 
-            switch (sb.toString()) {
-                // types
-                case "int"   : return new Token(TokenClass.INT,    line, column);
-                case "void"  : return new Token(TokenClass.VOID,   line, column);
-                case "char"  : return new Token(TokenClass.CHAR,   line, column);
-            
-                // keywords
-                case "if"    : return new Token(TokenClass.IF,     line, column);
-                case "else"  : return new Token(TokenClass.ELSE,   line, column);
-                case "while" : return new Token(TokenClass.WHILE,  line, column);
-                case "return": return new Token(TokenClass.RETURN, line, column);
-                case "struct": return new Token(TokenClass.STRUCT, line, column);
-                case "sizeof": return new Token(TokenClass.SIZEOF, line, column);
-
-                // just an identifier
-                default: return new Token(TokenClass.IDENTIFIER, sb.toString(), line, column);
-            }
+        //  identifiers, types, keywords
+        if (isIdentStart(c)) {
+            // scan the rest of the word in place, c has already been consumed
+            char[] buf = scanner.buffer();
+            int start = scanner.offset() - 1;
+            int end = start + 1;
+            while (isIdentPart(buf[end]))
+                end++;
+            scanner.skip(end - start - 1);
+
+            TokenClass kw = keyword(buf, start, end - start);
+            if (kw != null)
+                return token(kw, line, column);
+
+            // just an identifier
+            int id = names.intern(buf, start, end - start);
+            return identifier(id, line, column);
         }
 
         // #include
@@ -118,200 +233,166 @@ public class Tokeniser {
                 scanner.next();
                 
                 if (sb.toString().equals("#include")) {
-                    return new Token(TokenClass.INCLUDE, line, column);
+                    return token(TokenClass.INCLUDE, line, column);
                 }
                 
                 c = scanner.peek();
             }
 
+            // "#..." running into the end of file
+            if (scanner.atEOF())
+                return token(TokenClass.EOF, line, column);
         }
 
         // string literals
         if (c == '"') {
             StringBuilder sb = new StringBuilder();
-            try {
-                // delimited by double quotes so no need to peek
-                c = scanner.next();
-                
-                // until current character is string terminator
-                while (c != '"') {
-                    if (c == '\\') {
-                        // escaped character
-                        c = scanner.next();
-                        if (escapedChars.containsKey(c)) {
-                            // valid escape character
-                            sb.append("\\" + c);
-                        } else {
-                            error("\\" + c, line, column);
-                            sb.append('\\' + c);
-                        }
-                    } else {
-                        sb.append(c);
-                    }
+            // delimited by double quotes so no need to peek
+            c = scanner.next();
+
+            // until current character is string terminator
+            while (c != '"' && !scanner.atEOF()) {
+                if (c == '\\') {
+                    // escaped character
                     c = scanner.next();
+                    if (escapedChars.containsKey(c)) {
+                        // valid escape character
+                        sb.append("\\" + c);
+                    } else if (!scanner.atEOF()) {
+                        error("\\" + c, line, column);
+                        sb.append('\\' + c);
+                    }
+                } else {
+                    sb.append(c);
                 }
-                return new Token(TokenClass.STRING_LITERAL, sb.toString(), line, column);
-            } catch (EOFException e) {
+                c = scanner.next();
+            }
+            if (c != '"') {
                 // unclosed string - invalid
                 error("unclosed string literal", line, column);
-                return new Token(TokenClass.INVALID, "unclosed string literal", line, column);
+                return token(TokenClass.INVALID, "unclosed string literal", line, column);
             }
+            return token(TokenClass.STRING_LITERAL, sb.toString(), line, column);
         }
 
         // int literals
-        if (Character.isDigit(c)) {
-            StringBuilder sb = new StringBuilder();
-            sb.append(c);
-            
-            c = scanner.peek();
+        if (isDigit(c)) {
             // read digits
-            while (Character.isDigit(c)) {
-                sb.append(c);
-                scanner.next();
-                c = scanner.peek();
-            }
-
-            return new Token(TokenClass.INT_LITERAL, sb.toString(), line, column);
-            
+            char[] buf = scanner.buffer();
+            int start = scanner.offset() - 1;
+            int end = start + 1;
+            while (isDigit(buf[end]))
+                end++;
+            scanner.skip(end - start - 1);
+
+            return token(TokenClass.INT_LITERAL, null, line, column);
         }
         
         // character literals
         // 'a', '\\', '\n', ...
         if (c == '\'') {
             StringBuilder sb = new StringBuilder();
-            try {
-                c = scanner.next();
-    
-                while (c != '\'') {
-                    if (c == '\\') {
-                        c = scanner.next();
-                        if (escapedChars.containsKey(c)) {
-                            sb.append(escapedChars.get(c));
-                        } else {
-                            // invalid escape sequence
-                            error("\\" + c, line, column);
-                            sb.append('\\' + c);
-                        }
-                    } else {
-                        sb.append(c);
-                    }
+            c = scanner.next();
+
+            while (c != '\'' && !scanner.atEOF()) {
+                if (c == '\\') {
                     c = scanner.next();
-                }                
-                if (sb.length() == 1) {
-                    return new Token(TokenClass.CHAR_LITERAL, sb.toString(), line, column);
+                    if (escapedChars.containsKey(c)) {
+                        sb.append(escapedChars.get(c));
+                    } else if (!scanner.atEOF()) {
+                        // invalid escape sequence
+                        error("\\" + c, line, column);
+                        sb.append('\\' + c);
+                    }
                 } else {
-                    error("illegal char literal", line, column);
-                    return new Token(TokenClass.INVALID, "illegal char literal: " + sb.toString(), line, column);
+                    sb.append(c);
                 }
-            } catch (EOFException e) {
+                c = scanner.next();
+            }
+            if (c != '\'') {
                 error("unclosed char literal", line, column);
-                return new Token(TokenClass.INVALID, "unclosed char literal: " + sb.toString(), line, column);
+                return token(TokenClass.INVALID, "unclosed char literal: " + sb.toString(), line, column);
+            }
+            if (sb.length() == 1) {
+                return token(TokenClass.CHAR_LITERAL, sb.toString(), line, column);
+            } else {
+                error("illegal char literal", line, column);
+                return token(TokenClass.INVALID, "illegal char literal: " + sb.toString(), line, column);
             }
-
-
         }
 
         // attempt to grab next character ahead of time for 2-(non-alpha)character tokens
-        // comments
-        try {
-            char n = scanner.peek();
-            String nextPair = new String(new char[] {c, n});
-            try {
-                switch (nextPair) {
-                    /** line comment */
-                    case "//": {
-                        // System.out.println("line comment!");
-                        // stop comment at newline char '\n'
-                        while (scanner.peek() != '\n') {
-                            c = scanner.next();
-                        }
-                        // skip two characters
-                        c = scanner.next();
-                        return next();
-                    }
-    
-                    /** multiline comment */
-                    case "/*": {
-                        // System.out.println("multiline comment!");
-                        // skip to inside comment
+        // (peek yields the EOF sentinel at the end, which never completes a pair)
+        char n = scanner.peek();
+        switch (c) {
+            case '/': {
+                /** line comment */
+                if (n == '/') {
+                    // stop comment at newline char '\n'
+                    while (scanner.peek() != '\n') {
+                        if (scanner.atEOF())
+                            return token(TokenClass.EOF, line, column);
                         scanner.next();
-                        c = scanner.next();
-                        while (!(c == '*' && scanner.peek() == '/')) {
-                            c = scanner.next();
-                        }
-                        // skip two characters
-                        c = scanner.next();
-                        return next();
                     }
-                }
-            } catch (EOFException e) {
-                return new Token(TokenClass.EOF, line, column);
-            }
-        } catch (EOFException e) {}
-        // if EOF reached, simply continue to check for 1 more char
-
-        try {
-            char n = scanner.peek();
-            String nextPair = new String(new char[] {c, n});
-            switch(nextPair) {
-                /** comparisons */
-                case "!=": {
-                    scanner.next();
-                    return new Token(TokenClass.NE, line, column);
-                }
-                case "==": {
+                    // skip the newline
                     scanner.next();
-                    return new Token(TokenClass.EQ, line, column);
-                }
-                case "<=": {
-                    scanner.next();
-                    return new Token(TokenClass.LE, line, column);
-                }
-                case ">=": {
-                    scanner.next();
-                    return new Token(TokenClass.GE, line, column);
+                    return next();
                 }
 
-                /** logical operators */
-                case "&&": {
+                /** multiline comment */
+                if (n == '*') {
+                    // skip to inside comment
                     scanner.next();
-                    return new Token(TokenClass.AND, line, column);
-                }
-                case "||": {
+                    c = scanner.next();
+                    while (!(c == '*' && scanner.peek() == '/')) {
+                        if (scanner.atEOF())
+                            return token(TokenClass.EOF, line, column);
+                        c = scanner.next();
+                    }
+                    // skip the closing '/'
                     scanner.next();
-                    return new Token(TokenClass.OR, line, column);
+                    return next();
                 }
+                break;
             }
-            
-        } catch (EOFException e) {}
-        // end of file reached, only match basic tokens
+
+            /** comparisons */
+            case '!': if (n == '=') { scanner.next(); return token(TokenClass.NE, line, column); } break;
+            case '=': if (n == '=') { scanner.next(); return token(TokenClass.EQ, line, column); } break;
+            case '<': if (n == '=') { scanner.next(); return token(TokenClass.LE, line, column); } break;
+            case '>': if (n == '=') { scanner.next(); return token(TokenClass.GE, line, column); } break;
+
+            /** logical operators */
+            case '&': if (n == '&') { scanner.next(); return token(TokenClass.AND, line, column); } break;
+            case '|': if (n == '|') { scanner.next(); return token(TokenClass.OR,  line, column); } break;
+        }
 
         /** --- basic tokens --- */
         switch (c) {
             /** delimiters */
-            case '{': return new Token(TokenClass.LBRA,    line, column);
-            case '}': return new Token(TokenClass.RBRA,    line, column);
-            case '(': return new Token(TokenClass.LPAR,    line, column);
-            case ')': return new Token(TokenClass.RPAR,    line, column);
-            case '[': return new Token(TokenClass.LSBR,    line, column);
-            case ']': return new Token(TokenClass.RSBR,    line, column);
-            case ';': return new Token(TokenClass.SC,      line, column);
-            case ',': return new Token(TokenClass.COMMA,   line, column);
+            case '{': return token(TokenClass.LBRA,    line, column);
+            case '}': return token(TokenClass.RBRA,    line, column);
+            case '(': return token(TokenClass.LPAR,    line, column);
+            case ')': return token(TokenClass.RPAR,    line, column);
+            case '[': return token(TokenClass.LSBR,    line, column);
+            case ']': return token(TokenClass.RSBR,    line, column);
+            case ';': return token(TokenClass.SC,      line, column);
+            case ',': return token(TokenClass.COMMA,   line, column);
             
             /** operators */
-            case '+': return new Token(TokenClass.PLUS,    line, column);
-            case '-': return new Token(TokenClass.MINUS,   line, column);
-            case '*': return new Token(TokenClass.ASTERIX, line, column);
-            case '/': return new Token(TokenClass.DIV,     line, column);
-            case '%': return new Token(TokenClass.REM,     line, column);
+            case '+': return token(TokenClass.PLUS,    line, column);
+            case '-': return token(TokenClass.MINUS,   line, column);
+            case '*': return token(TokenClass.ASTERIX, line, column);
+            case '/': return token(TokenClass.DIV,     line, column);
+            case '%': return token(TokenClass.REM,     line, column);
             
             /** struct member access */
-            case '.': return new Token(TokenClass.DOT,     line, column);
+            case '.': return token(TokenClass.DOT,     line, column);
             
             /** comparisons */
-            case '=': return new Token(TokenClass.ASSIGN,  line, column);
-            case '<': return new Token(TokenClass.LT,      line, column);
-            case '>': return new Token(TokenClass.GT,      line, column);
+            case '=': return token(TokenClass.ASSIGN,  line, column);
+            case '<': return token(TokenClass.LT,      line, column);
+            case '>': return token(TokenClass.GT,      line, column);
 
             // match newline characters before EOF
             case '\n': return next();
@@ -319,7 +400,7 @@ public class Tokeniser {
 
         // if we reach this point, it means we did not recognise a valid token
         error(c, line, column);
-        return new Token(TokenClass.INVALID, line, column);
+        return token(TokenClass.INVALID, line, column);
     }
 
 }
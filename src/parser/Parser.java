@@ -2,14 +2,13 @@ package parser;
 
 import ast.*;
 
-import lexer.Token;
+import lexer.TokenStream;
 import lexer.Tokeniser;
 import lexer.Token.TokenClass;
+import util.Position;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
 
 /**
@@ -17,22 +16,27 @@ import java.util.Queue;
  */
 public class Parser {
 
-    private Token token;
+    // tokens are read through a cursor, lookahead is plain indexing
+    // (useful for distinguishing decls from procs when parsing a program for instance)
+    private final TokenStream tokens;
+    private int cursor;
 
-    // use for backtracking (useful for distinguishing decls from procs when parsing a program for instance)
-    private Queue<Token> buffer = new LinkedList<>();
-
-    private final Tokeniser tokeniser;
+    // how far back or ahead of the cursor a token may be read when streaming
+    private static final int LOOKAHEAD_WINDOW = 64;
 
 
 
     public Parser(Tokeniser tokeniser) {
-        this.tokeniser = tokeniser;
+        this(new TokenStream(tokeniser, LOOKAHEAD_WINDOW));
+    }
+
+    public Parser(TokenStream tokens) {
+        this.tokens = tokens;
     }
 
     public Program parse() {
-        // get the first token
-        nextToken();
+        // start at the first token
+        cursor = 0;
 
         return parseProgram();
     }
@@ -42,11 +46,11 @@ public class Parser {
     }
 
     private int error = 0;
-    private Token lastErrorToken;
+    private int lastErrorToken = -1;
 
     private void error(TokenClass... expected) {
 
-        if (lastErrorToken == token) {
+        if (lastErrorToken == cursor) {
             // skip this error, same token causing trouble
             nextToken();
             return;
@@ -59,79 +63,98 @@ public class Parser {
             sb.append(e);
             sep = "|";
         }
-        System.out.println("Parsing error: expected ("+sb+") found ("+token+") at "+token.position);
+        System.out.println("Parsing error: expected ("+sb+") found ("+tokens.toString(cursor)+") at "+tokens.position(cursor));
 
         error++;
-        lastErrorToken = token;
+        lastErrorToken = cursor;
 
     }
 
+    /*
+     * Class of the current token.
+     */
+    private TokenClass tokenClass() {
+        return tokens.tokenClass(cursor);
+    }
+
     /*
      * Look ahead the i^th element from the stream of token.
      * i should be >= 1
      */
-    private Token lookAhead(int i) {
-        // ensures the buffer has the element we want to look ahead
-        while (buffer.size() < i)
-            buffer.add(tokeniser.nextToken());
-        assert buffer.size() >= i;
-
-        int cnt=1;
-        for (Token t : buffer) {
-            if (cnt == i)
-                return t;
-            cnt++;
-        }
-
-        assert false; // should never reach this
-        return null;
+    private TokenClass lookAhead(int i) {
+        return tokens.tokenClass(cursor + i);
     }
 
 
     /*
-     * Consumes the next token from the tokeniser or the buffer if not empty.
+     * Moves the cursor on to the next token.
      */
     private void nextToken() {
-        if (!buffer.isEmpty())
-            token = buffer.remove();
-        else
-            token = tokeniser.nextToken();
+        cursor++;
     }
 
     /*
      * If the current token is equals to the expected one, then skip it, otherwise report an error.
-     * Returns the expected token or null if an error occurred.
+     * Returns the index of the expected token or -1 if an error occurred.
      */
-    private Token expect(TokenClass... expected) {
+    private int expect(TokenClass expected) {
+        if (tokenClass() == expected) {
+            int cur = cursor;
+            nextToken();
+            return cur;
+        }
+
+        error(expected);
+        return -1;
+    }
+
+    private int expect(TokenClass... expected) {
+        TokenClass tc = tokenClass();
         for (TokenClass e : expected) {
-            if (e == token.tokenClass) {
-                Token cur = token;
+            if (e == tc) {
+                int cur = cursor;
                 nextToken();
                 return cur;
             }
         }
 
         error(expected);
-        return null;
+        return -1;
+    }
+
+    /*
+    * Returns true if the current token is equals to the expected one
+    * (kept apart from the varargs version so the common case allocates nothing).
+    */
+    private boolean accept(TokenClass expected) {
+        return tokenClass() == expected;
     }
 
     /*
     * Returns true if the current token is equals to any of the expected ones.
     */
     private boolean accept(TokenClass... expected) {
+        TokenClass tc = tokenClass();
         boolean result = false;
         for (TokenClass e : expected)
-            result |= (e == token.tokenClass);
+            result |= (e == tc);
         return result;
     }
 
     private boolean acceptsType() {
-        return accept(
-            TokenClass.INT,
-            TokenClass.CHAR,
-            TokenClass.VOID,
-            TokenClass.STRUCT
-        );
+        return isType(tokenClass());
+    }
+
+    private static boolean isType(TokenClass tc) {
+        switch (tc) {
+            case INT:
+            case CHAR:
+            case VOID:
+            case STRUCT:
+                return true;
+            default:
+                return false;
+        }
     }
 
     /**
@@ -142,7 +165,7 @@ public class Parser {
      */
     private boolean acceptWithLookahead(int i, TokenClass...expected) {
         boolean result = false;
-        TokenClass la = lookAhead(i).tokenClass;
+        TokenClass la = lookAhead(i);
         for (TokenClass e : expected)
             result |= (e == la);
         return result;
@@ -154,10 +177,10 @@ public class Parser {
         // struct has 1 extra token (IDENT)
         if (accept(TokenClass.STRUCT)) { offset++; }
         // reference has 1 extra token ("*")
-        if (lookAhead(offset).tokenClass == TokenClass.ASTERIX) { offset++; }
+        if (lookAhead(offset) == TokenClass.ASTERIX) { offset++; }
         // final offset to next token
         offset++;
-        TokenClass tc = lookAhead(offset).tokenClass;
+        TokenClass tc = lookAhead(offset);
         return tc == TokenClass.LPAR;
     }
 
@@ -167,10 +190,10 @@ public class Parser {
         // struct has 1 extra token (IDENT)
         if (accept(TokenClass.STRUCT)) { offset++; }
         // reference has 1 extra token ("*")
-        if (lookAhead(offset).tokenClass == TokenClass.ASTERIX) { offset++; }
+        if (lookAhead(offset) == TokenClass.ASTERIX) { offset++; }
         // final offset to next token
         offset++;
-        TokenClass tc = lookAhead(offset).tokenClass;
+        TokenClass tc = lookAhead(offset);
         return (tc == TokenClass.SC || tc == TokenClass.LSBR);
     }
 
@@ -178,15 +201,15 @@ public class Parser {
         // starting lookahead position
         int offset = 1;
         // check is struct
-        if (!accept(TokenClass.STRUCT) || !(lookAhead(offset).tokenClass == TokenClass.IDENTIFIER)) { 
+        if (!accept(TokenClass.STRUCT) || !(lookAhead(offset) == TokenClass.IDENTIFIER)) { 
             return false; 
         }
         offset++;
         
         // reference has 1 extra token ("*")
-        if (lookAhead(offset).tokenClass == TokenClass.ASTERIX) { offset++; }
+        if (lookAhead(offset) == TokenClass.ASTERIX) { offset++; }
         // final offset to next token
-        TokenClass tc = lookAhead(offset).tokenClass;
+        TokenClass tc = lookAhead(offset);
         return (tc == TokenClass.LBRA);
     }
 
@@ -199,7 +222,7 @@ public class Parser {
         List<VarDecl> vds = parseGlobalVarDecls();
         List<FunDecl> fds = parseGlobalFunDecls();
         expect(TokenClass.EOF);
-        return new Program(stds, vds, fds);
+        return new Program(stds, vds, fds, tokens.getNames());
     }
 
     // includes are ignored, so does not need to return an AST node
@@ -214,20 +237,22 @@ public class Parser {
     private StructType parseStructType() {
         // sane default
         String st = "-- invalid struct --";
+        int id = -1;
 
         expect(TokenClass.STRUCT);
-        Token t = expect(TokenClass.IDENTIFIER);
-        // error handling for null token
-        if (t != null) {
-            st = t.data;
+        int t = expect(TokenClass.IDENTIFIER);
+        // error handling for missing token
+        if (t != -1) {
+            st = tokens.data(t);
+            id = tokens.id(t);
         }
-        return new StructType(st);
+        return new StructType(st, id);
     }
 
     private List<StructTypeDecl> parseStructDecls() {
         List<StructTypeDecl> stds = new ArrayList<>();
 
-        if (isStructDecl()) {
+        while (isStructDecl()) {
             StructType st = parseStructType();
             List<VarDecl> vds = new ArrayList<>();
     
@@ -240,8 +265,6 @@ public class Parser {
             expect(TokenClass.SC);
     
             stds.add(new StructTypeDecl(st, vds));
-    
-            stds.addAll(parseStructDecls());
         }
 
         return stds;
@@ -256,15 +279,15 @@ public class Parser {
                 return st;
             }
         } else {
-            Token t = expect(
+            int t = expect(
                 TokenClass.INT,
                 TokenClass.CHAR,
                 TokenClass.VOID
             );
             // initialize bt to default to VOID
             BaseType bt = BaseType.VOID;
-            if (t != null) {
-                switch (t.tokenClass) {
+            if (t != -1) {
+                switch (tokens.tokenClass(t)) {
                     case INT:  bt = BaseType.INT; break;
                     case CHAR: bt = BaseType.CHAR; break;
                     case VOID: bt = BaseType.VOID; break;
@@ -297,27 +320,28 @@ public class Parser {
     
     private VarDecl parseVarDecl() {
         Type t = parseType();
-        Token tok = expect(TokenClass.IDENTIFIER);
+        int tok = expect(TokenClass.IDENTIFIER);
         
         // bad identifier
         String name = "-- invalid variable identifier --";
-        if (tok != null) {
-            name = tok.data;
+        int id = -1;
+        if (tok != -1) {
+            name = tokens.data(tok);
+            id = tokens.id(tok);
         }
         int i = parseArrayDecl();
         expect(TokenClass.SC);
         if (i > -1) {
             t = new ArrayType(t, i);
         }
-        return new VarDecl(t, name);
+        return new VarDecl(t, name, id);
     }
 
     // can scoop up function declarations if no lookahead
     private List<VarDecl> parseVarDecls() {
         List<VarDecl> vds = new ArrayList<>();
-        if (acceptsType() && isVarDecl()) {
+        while (acceptsType() && isVarDecl()) {
             vds.add(parseVarDecl());
-            vds.addAll(parseVarDecls());
         }
         return vds;
     }
@@ -326,10 +350,10 @@ public class Parser {
         int i = -1;
         if (accept(TokenClass.LSBR)) {
             nextToken();
-            Token t = expect(TokenClass.INT_LITERAL);
-            if (t != null) {
+            int t = expect(TokenClass.INT_LITERAL);
+            if (t != -1) {
                 try {
-                    i = Integer.parseInt(t.data);
+                    i = Integer.parseInt(tokens.data(t));
                 } catch (Exception e) {
                     // oopsie
                 }
@@ -350,19 +374,29 @@ public class Parser {
 
     private FunDecl parseFunDecl() {
         Type t = parseType();
-        String name = expect(TokenClass.IDENTIFIER).data;
+        int tok = expect(TokenClass.IDENTIFIER);
+        // read the name now, the token may have left the window by the end of the body
+        String name = "-- invalid function identifier --";
+        int id = -1;
+        Position position = null;
+        if (tok != -1) {
+            name = tokens.data(tok);
+            id = tokens.id(tok);
+            position = tokens.position(tok);
+        }
         expect(TokenClass.LPAR);
         List<VarDecl> params = parseParams();
         expect(TokenClass.RPAR);
         Block b = parseBlock();
-        return new FunDecl(t, name, params, b);
+        FunDecl fd = new FunDecl(t, name, id, params, b);
+        fd.position = position;
+        return fd;
     }
 
     private List<FunDecl> parseFunDecls() {
         List<FunDecl> fds = new ArrayList<>();
-        if (acceptsType() && isFunDecl()) {
+        while (acceptsType() && isFunDecl()) {
             fds.add(parseFunDecl());
-            fds.addAll(parseFunDecls());
         }
         return fds;
     }
@@ -371,8 +405,14 @@ public class Parser {
         List<VarDecl> params = new ArrayList<>();
         if (acceptsType()) {
             Type t = parseType();
-            String name = expect(TokenClass.IDENTIFIER).data;
-            params.add(new VarDecl(t, name));
+            int tok = expect(TokenClass.IDENTIFIER);
+            String name = "-- invalid parameter identifier --";
+            int id = -1;
+            if (tok != -1) {
+                name = tokens.data(tok);
+                id = tokens.id(tok);
+            }
+            params.add(new VarDecl(t, name, id));
             if (accept(TokenClass.COMMA)) {
                 nextToken();
                 params.addAll(parseParams());
@@ -410,6 +450,7 @@ public class Parser {
     }
 
     private Stmt parseStmt() {
+        Position position = tokens.position(cursor);
         Stmt stmt;
         if (accept(TokenClass.LBRA)) {
             stmt = parseBlock();
@@ -447,6 +488,7 @@ public class Parser {
             }
             expect(TokenClass.SC);
         }
+        stmt.position = position;
         return stmt;
     }
 
@@ -457,136 +499,55 @@ public class Parser {
         return null;
     }
 
-    private Expr parseExp() {
-        return parseExp8();
-    }
-
-    private Expr parseExp8() {
-        Expr e = parseExp7();
-
-        if (accept(TokenClass.OR)) {
-            nextToken();
-            Expr right = parseExp8();
-
-            e = new BinOp(e, Op.OR, right);
-        }
-
-        return e;
-    }
-    
-    private Expr parseExp7() {
-        Expr e = parseExp6();
-
-        if (accept(TokenClass.AND)) {
-            nextToken();
-            Expr right = parseExp7();
+    // ------------------- binary operators ---------------
 
-            e = new BinOp(e, Op.AND, right);
-        }
+    // binding strength of each token class as a binary operator, 0 if it is not one
+    private static final int[] precedence = new int[TokenClass.values().length];
+    private static final Op[] binaryOp = new Op[TokenClass.values().length];
 
-        return e;
+    private static void binary(TokenClass tc, int prec, Op op) {
+        precedence[tc.ordinal()] = prec;
+        binaryOp[tc.ordinal()] = op;
     }
 
-    private Expr parseExp6() {
-        Expr e = parseExp5();
-        TokenClass opClass = token.tokenClass;
-
-        if (accept(
-            TokenClass.EQ,
-            TokenClass.NE
-        )) {
-            nextToken();
-            Expr right = parseExp6();
-            Op op = null;
-
-            switch (opClass) {
-                case EQ: op = Op.EQ; break;
-                case NE: op = Op.NE; break;
-
-                default:
-                    break;
-            }
-            
-            e = new BinOp(e, op, right);
-        }
-        return e;
+    static {
+        binary(TokenClass.OR,      1, Op.OR);
+        binary(TokenClass.AND,     2, Op.AND);
+        binary(TokenClass.EQ,      3, Op.EQ);
+        binary(TokenClass.NE,      3, Op.NE);
+        binary(TokenClass.LT,      4, Op.LT);
+        binary(TokenClass.LE,      4, Op.LE);
+        binary(TokenClass.GT,      4, Op.GT);
+        binary(TokenClass.GE,      4, Op.GE);
+        binary(TokenClass.PLUS,    5, Op.ADD);
+        binary(TokenClass.MINUS,   5, Op.SUB);
+        binary(TokenClass.ASTERIX, 6, Op.MUL);
+        binary(TokenClass.DIV,     6, Op.DIV);
+        binary(TokenClass.REM,     6, Op.MOD);
     }
 
-    private Expr parseExp5() {
-        Expr e = parseExp4();
-        TokenClass opClass = token.tokenClass;
-
-        if (accept(
-            TokenClass.LT,
-            TokenClass.LE,
-            TokenClass.GT,
-            TokenClass.GE
-        )) {
-            nextToken();
-            Expr right = parseExp5();
-            Op op = null;
-
-            switch (opClass) {
-                case LT: op = Op.LT; break;
-                case LE: op = Op.LE; break;
-                case GT: op = Op.GT; break;
-                case GE: op = Op.GE; break;
-            
-                default:
-                    break;
-            }
-
-            e = new BinOp(e, op, right);
-        }
-        return e;
+    private Expr parseExp() {
+        return parseBinary(1);
     }
 
-    private Expr parseExp4() {
-        Expr e = parseExp3();
-        TokenClass opClass = token.tokenClass;
+    /*
+     * Precedence climbing: parses an operand followed by any operators binding at
+     * least as tightly as minPrec. Operators of one level are folded in a loop, so
+     * they associate to the left and a long chain does not deepen the stack; only
+     * a switch to a tighter level recurses, at most once per level.
+     */
+    private Expr parseBinary(int minPrec) {
+        Expr e = parseExp2();
 
-        if (accept(
-            TokenClass.PLUS,
-            TokenClass.MINUS
-        )) {
+        int prec = precedence[tokenClass().ordinal()];
+        while (prec >= minPrec) {
+            Op op = binaryOp[tokenClass().ordinal()];
             nextToken();
-            Expr right = parseExp4();
-            Op op = null;
-
-            switch (opClass) {
-                case PLUS : op = Op.ADD; break;
-                case MINUS: op = Op.SUB; break;
-
-                default:
-                    break;
-            }
-
+            Expr right = parseBinary(prec + 1);
             e = new BinOp(e, op, right);
+            prec = precedence[tokenClass().ordinal()];
         }
-        return e;
-    }
 
-    private Expr parseExp3() {
-        Expr e = parseExp2();
-        
-        TokenClass opClass = token.tokenClass;
-        if (accept(
-            TokenClass.ASTERIX,
-            TokenClass.DIV,
-            TokenClass.REM
-        )) {
-            nextToken();
-            Expr right = parseExp3();
-            Op op = null;
-            switch (opClass) {
-                case ASTERIX: op = Op.MUL; break;
-                case DIV    : op = Op.DIV; break;
-                case REM    : op = Op.MOD; break;
-                default:
-                    break;
-            }
-            e = new BinOp(e, op, right);
-        }
         return e;
     }
 
@@ -615,13 +576,7 @@ public class Parser {
             e = new SizeOfExpr(t);
         }
         else if (
-            accept(TokenClass.LPAR) && 
-            acceptWithLookahead(1, 
-                TokenClass.INT,
-                TokenClass.CHAR,
-                TokenClass.VOID,
-                TokenClass.STRUCT
-            )) { 
+            accept(TokenClass.LPAR) && isType(lookAhead(1))) { 
                 Type t = parseTypecast();
                 Expr tce = parseExp2();
                 e = new TypecastExpr(t, tce);
@@ -634,7 +589,7 @@ public class Parser {
 
     private Expr parseExp1() {
         Expr e;
-        TokenClass la = lookAhead(1).tokenClass;
+        TokenClass la = lookAhead(1);
         // check for function calls
         if (accept(TokenClass.IDENTIFIER) && la == TokenClass.LPAR) {
             e = parseFunCall();
@@ -642,25 +597,27 @@ public class Parser {
             e = parseExp0();
         }
 
-        while (accept(TokenClass.LSBR, TokenClass.DOT)) {
+        while (accept(TokenClass.LSBR) || accept(TokenClass.DOT)) {
             if (accept(TokenClass.LSBR)) {
                 e = new ArrayAccessExpr(e, parseArrayAccess());
             } else if (accept(TokenClass.DOT)) {
-                e = new FieldAccessExpr(e, parseFieldAccess());
+                e = parseFieldAccess(e);
             }
         }
 
         return e;
     }
 
-    private String parseFieldAccess() {
+    private FieldAccessExpr parseFieldAccess(Expr struct) {
         expect(TokenClass.DOT);
         String field = "-- invalid field access identifier --";
-        Token t = expect(TokenClass.IDENTIFIER);
-        if (t != null) {
-            field = t.data;
+        int id = -1;
+        int t = expect(TokenClass.IDENTIFIER);
+        if (t != -1) {
+            field = tokens.data(t);
+            id = tokens.id(t);
         }
-        return field;
+        return new FieldAccessExpr(struct, field, id);
     }
 
     private Expr parseArrayAccess() {
@@ -677,18 +634,18 @@ public class Parser {
             e = parseExp();
             expect(TokenClass.RPAR);
         } else {
-            Token t = expect(
+            int t = expect(
                 TokenClass.IDENTIFIER,
                 TokenClass.INT_LITERAL,
                 TokenClass.STRING_LITERAL,
                 TokenClass.CHAR_LITERAL
             );
-            if (t != null) {
-                switch (t.tokenClass) {
-                    case IDENTIFIER    : e = new VarExpr(t.data); break;
-                    case INT_LITERAL   : e = IntLiteral.fromString(t.data); break;
-                    case STRING_LITERAL: e = new StrLiteral(t.data); break;
-                    case CHAR_LITERAL  : e = ChrLiteral.fromString(t.data); break;
+            if (t != -1) {
+                switch (tokens.tokenClass(t)) {
+                    case IDENTIFIER    : e = new VarExpr(tokens.data(t), tokens.id(t)); break;
+                    case INT_LITERAL   : e = IntLiteral.fromString(tokens.data(t)); break;
+                    case STRING_LITERAL: e = new StrLiteral(tokens.data(t)); break;
+                    case CHAR_LITERAL  : e = ChrLiteral.fromString(tokens.data(t)); break;
                     default: break;
                 }
             }
@@ -699,11 +656,13 @@ public class Parser {
 
     private FunCallExpr parseFunCall() {
         String name = "-- invalid function name --";
+        int id = -1;
         List<Expr> args = new ArrayList<>();
 
-        Token t = expect(TokenClass.IDENTIFIER);
-        if (t != null) {
-            name = t.data;
+        int t = expect(TokenClass.IDENTIFIER);
+        if (t != -1) {
+            name = tokens.data(t);
+            id = tokens.id(t);
         }
 
         expect(TokenClass.LPAR);
@@ -711,22 +670,15 @@ public class Parser {
             args.addAll(parseOptExpPlus());
         }
         expect(TokenClass.RPAR);
-        return new FunCallExpr(name, args);
+        return new FunCallExpr(name, id, args);
     }
     
     private List<Expr> parseOptExpPlus() {
         List<Expr> exprs = new ArrayList<>();
         exprs.add(parseExp());
-        exprs.addAll(parseExpPlus());
-        return exprs;
-    }
-
-    private List<Expr> parseExpPlus() {
-        List<Expr> exprs = new ArrayList<>();
-        if (accept(TokenClass.COMMA)) {
+        while (accept(TokenClass.COMMA)) {
             nextToken();
             exprs.add(parseExp());
-            exprs.addAll(parseExpPlus());
         }
         return exprs;
     }
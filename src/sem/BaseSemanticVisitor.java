@@ -1,5 +1,7 @@
 package sem;
 
+import java.util.List;
+
 
 /**
  * 
@@ -8,6 +10,8 @@ package sem;
  */
 public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
 	private int errors;
+	// when set, messages are collected here instead of printed
+	private List<String> messages;
 	
 	
 	public BaseSemanticVisitor() {
@@ -17,9 +21,17 @@ public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
 	public int getErrorCount() {
 		return errors;
 	}
+
+	public void setMessageSink(List<String> messages) {
+		this.messages = messages;
+	}
 	
 	protected void error(String message) {
-		System.err.println("semantic error (" + getClass().getSimpleName()+ "): " + message);
+		String line = "semantic error (" + getClass().getSimpleName()+ "): " + message;
+		if (messages != null)
+			messages.add(line);
+		else
+			System.err.println(line);
 		errors++;
 	}
 }
@@ -5,10 +5,17 @@ import ast.FunDecl;
 public class FunSymbol extends Symbol {
 
     public final FunDecl fd;
+    // position among the program's function declarations, -1 for library functions
+    public final int order;
 
-    public FunSymbol(FunDecl fd) {
-        super(fd.name);
+    public FunSymbol(FunDecl fd, int order) {
+        super(fd.name, fd.id);
         this.fd = fd;
+        this.order = order;
+    }
+
+    public FunSymbol(FunDecl fd) {
+        this(fd, -1);
     }
 
     @Override
@@ -1,44 +1,100 @@
 package sem;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.List;
 
 import ast.*;
+import util.Interner;
 
 public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	public TypeCheckVisitor tcv = new TypeCheckVisitor();
 
+	// identifier ids of the program being analysed
+	private Interner names;
+
 	public FunSymbol funSymFromDecl(Type t, String name, List<VarDecl> params) {
-		return new FunSymbol(new FunDecl(t, name, params));
+		return new FunSymbol(new FunDecl(t, name, names.intern(name), params));
 	}
 	public FunSymbol funSymFromDecl(Type t, String name) {
 		return funSymFromDecl(t, name, new ArrayList<>());
 	}
+	public List<VarDecl> param(Type t, String name) {
+		List<VarDecl> params = new ArrayList<>();
+		params.add(new VarDecl(t, name, names.intern(name)));
+		return params;
+	}
 
 	// dummy library functions
-	private Scope globalScope = new Scope() {{
-		put(funSymFromDecl(BaseType.VOID, "print_s", new ArrayList<VarDecl>() {{ add(new VarDecl(new PointerType(BaseType.CHAR), "s")); }}));
-		put(funSymFromDecl(BaseType.VOID, "print_i", new ArrayList<VarDecl>() {{ add(new VarDecl(BaseType.INT, "i")); }}));
-		put(funSymFromDecl(BaseType.VOID, "print_c", new ArrayList<VarDecl>() {{ add(new VarDecl(BaseType.CHAR, "c")); }}));
+	private Scope libraryScope() {
+		Scope s = new Scope();
+		s.put(funSymFromDecl(BaseType.VOID, "print_s", param(new PointerType(BaseType.CHAR), "s")));
+		s.put(funSymFromDecl(BaseType.VOID, "print_i", param(BaseType.INT, "i")));
+		s.put(funSymFromDecl(BaseType.VOID, "print_c", param(BaseType.CHAR, "c")));
 		
-		put(funSymFromDecl(BaseType.CHAR, "read_c"));
-		put(funSymFromDecl(BaseType.INT , "read_i"));
+		s.put(funSymFromDecl(BaseType.CHAR, "read_c"));
+		s.put(funSymFromDecl(BaseType.INT , "read_i"));
 		
-		put(funSymFromDecl(new PointerType(BaseType.VOID), "mcmalloc", new ArrayList<VarDecl>() {{ add(new VarDecl(BaseType.INT, "size")); }}));
-	}};
+		s.put(funSymFromDecl(new PointerType(BaseType.VOID), "mcmalloc", param(BaseType.INT, "size")));
+		return s;
+	}
 
 	private FunDecl currentFun;
+	// declaration order of currentFun, functions declared after it are not visible yet
+	private int currentOrder;
 
-	private Map<String, StructTypeDecl> structs = new HashMap<>();
+	// struct declarations indexed by the struct name's id
+	private StructTypeDecl[] structs;
 
-	private Scope currentScope = globalScope;
+	private Scope currentScope;
+
+	public NameAnalysisVisitor() {
+	}
+
+	/*
+	 * A visitor for a single function body that shares the global scope already
+	 * built by another visitor. The global scope is only read from here on.
+	 */
+	NameAnalysisVisitor(NameAnalysisVisitor globals) {
+		this.names = globals.names;
+		this.structs = globals.structs;
+		this.currentScope = globals.currentScope;
+	}
+
+	@Override
+	public void setMessageSink(List<String> messages) {
+		super.setMessageSink(messages);
+		tcv.setMessageSink(messages);
+	}
+
+	private StructTypeDecl getStruct(int id) {
+		return id >= 0 && id < structs.length ? structs[id] : null;
+	}
+
+	private Symbol lookup(int id) {
+		Symbol s = currentScope.lookup(id);
+		if (s != null && s.isFun() && ((FunSymbol) s).order > currentOrder)
+			return null;
+		return s;
+	}
 	
 	public Void visitProgram(Program p) {
+		declareGlobals(p);
 
-		FunDecl main = null;
+		int order = 0;
+		for (FunDecl fd : p.funDecls) {
+			visitFunction(fd, order++);
+		}
+
+		findMain(p);
+		return null;
+	}
+
+	// library functions, structs and global variables
+	void declareGlobals(Program p) {
+		names = p.names;
+		currentScope = libraryScope();
+		structs = new StructTypeDecl[names.size()];
 
 		for (StructTypeDecl std : p.structTypeDecls) {
 			std.accept(this);
@@ -50,12 +106,44 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 			vd.accept(this);
 			vd.global = true;
         }
-        for (FunDecl fd : p.funDecls) {
-			if (fd.name.equals("main")) {
+	}
+
+	/*
+	 * Puts every function in the global scope up front and resolves the types
+	 * in its signature, so the bodies can then be analysed independently.
+	 * Errors are left for visitFunction to report in its own turn.
+	 */
+	void declareFunctions(Program p) {
+		List<String> ignored = new ArrayList<>();
+		NameAnalysisVisitor signatures = new NameAnalysisVisitor(this);
+		signatures.setMessageSink(ignored);
+
+		int order = 0;
+		for (FunDecl fd : p.funDecls) {
+			if (currentScope.lookup(fd.id) == null) {
+				currentScope.put(new FunSymbol(fd, order));
+			}
+			fd.type.accept(signatures);
+			for (VarDecl vd : fd.params) {
+				vd.type.accept(signatures);
+			}
+			order++;
+		}
+	}
+
+	void visitFunction(FunDecl fd, int order) {
+		currentFun = fd;
+		currentOrder = order;
+		fd.accept(this);
+	}
+
+	void findMain(Program p) {
+		int mainId = names.lookup("main");
+		FunDecl main = null;
+		for (FunDecl fd : p.funDecls) {
+			if (fd.id == mainId) {
 				main = fd;
 			}
-			currentFun = fd;
-			fd.accept(this);
 		}
 
 		if (main != null) {
@@ -63,9 +151,6 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 		} else {
 			error("no 'main' in program");
 		}
-		
-
-		return null;
 	}
 
 	public Void visitBaseType(BaseType bt) {
@@ -78,7 +163,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 	}
 
 	public Void visitStructType(StructType st) {
-		StructTypeDecl std = structs.get(st.structType);
+		StructTypeDecl std = getStruct(st.id);
 		if (std != null) {
 			st.std = std;
 		} else {
@@ -95,15 +180,15 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	public Void visitStructTypeDecl(StructTypeDecl std) {
 		String name = std.st.structType;
-		if (structs.get(name) != null) {
+		if (getStruct(std.st.id) != null) {
 			error("duplicate struct name in scope: " + name);
 		} else {
-			structs.put(name, std);
+			structs[std.st.id] = std;
 			// name analysis on variables in struct scope
 			currentScope = new Scope(currentScope, "struct " + name);
 			for (VarDecl vd : std.vds) {
 				// struct cannot self-reference unless it's a pointer to itself
-				if (Type.isStructType(vd.type) && ((StructType) vd.type).structType.equals(std.st.structType)) {
+				if (Type.isStructType(vd.type) && ((StructType) vd.type).id == std.st.id) {
 					error(String.format("cannot self-reference struct '%s'", std.st.structType));
 				} else {
 					vd.accept(this);
@@ -115,7 +200,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 	}
 
 	public Void visitVarDecl(VarDecl vd) {
-		if (currentScope.lookupCurrent(vd.name) != null) {
+		if (currentScope.lookupCurrent(vd.id) != null) {
 			error("duplicate var name in scope: " + vd.name);
 		} else {
 			vd.type.accept(this);
@@ -126,10 +211,12 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	public Void visitFunDecl(FunDecl fd) {
 		
-		if (currentScope.lookup(fd.name) != null) {
+		Symbol s = lookup(fd.id);
+		if (s == null) {
+			currentScope.put(new FunSymbol(fd, currentOrder));
+		} else if (!(s.isFun() && ((FunSymbol) s).fd == fd)) {
+			// (already declared by declareFunctions when analysing in parallel)
 			error("duplicate func name in scope: " + fd.name);
-		} else {
-			currentScope.put(new FunSymbol(fd));
 		}
 
 		fd.type.accept(this);
@@ -159,7 +246,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 	}
 
 	public Void visitVarExpr(VarExpr v) {
-		Symbol s = currentScope.lookup(v.name);
+		Symbol s = lookup(v.id);
 		if (s != null && s.isVar()) {
 			// cast to varsymbol
 			VarSymbol vs = (VarSymbol) s;
@@ -173,7 +260,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 	}
 
 	public Void visitFunCallExpr(FunCallExpr fce) {
-		Symbol s = currentScope.lookup(fce.name);
+		Symbol s = lookup(fce.id);
 		if (s != null && s.isFun()) {
 			// cast to funsymbol
 			FunSymbol fs = (FunSymbol) s;
@@ -214,11 +301,11 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 			// otherwise it is not semantically correct
 			StructType t = (StructType) fae.struct.accept(tcv);
 
-			if (structs.get(t.structType) != null) {
-				if (!t.std.hasField(fae.field)) {
+			if (getStruct(t.id) != null) {
+				if (!t.std.hasField(fae.fieldId)) {
 					error("struct '" + t.structType + "' does not contain field '" + fae.field + "'");
 				}
-				fae.type = t.std.getFieldType(fae.field);
+				fae.type = t.std.getFieldType(fae.fieldId);
 			}
 		} catch (Exception e) {
 			error("bad field access: " + fae.struct + "." + fae.field);
@@ -294,7 +381,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 	public Void visitBlock(Block b) {
 		currentScope = new Scope(currentScope, currentScope.namespace + " -> block");
 		for (VarDecl vd : b.vds) {
-			if (currentFun.hasParam(vd.name)) {
+			if (currentFun.hasParam(vd.id)) {
 				error(String.format("cannot shadow function parameter '%s'", vd.name));
 			} else {
 				vd.accept(this);
@@ -1,36 +1,64 @@
 package sem;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class Scope {
 	private Scope outer;
 	public final String namespace;
-	private Map<String, Symbol> symbolTable;
+
+	// symbols keyed by interned name id, open addressing (slot holds null when empty)
+	private Symbol[] symbolTable = new Symbol[8];
+	private int size = 0;
 	
 	public Scope(Scope outer, String namespace) { 
 		this.outer = outer;
 		this.namespace = namespace;
-
-		this.symbolTable = new HashMap<String,Symbol>();
 	}
 	
 	public Scope() { this(null, "global scope"); }
 	
-	public Symbol lookup(String name) {
-		Symbol s = lookupCurrent(name);
-		if (s == null && this.outer != null) {
-			s = this.outer.lookup(name);
+	public Symbol lookup(int id) {
+		for (Scope s = this; s != null; s = s.outer) {
+			Symbol sym = s.lookupCurrent(id);
+			if (sym != null)
+				return sym;
 		}
-		return s;
+		return null;
 	}
 	
-	public Symbol lookupCurrent(String name) {
-		return this.symbolTable.get(name);
+	public Symbol lookupCurrent(int id) {
+		int mask = symbolTable.length - 1;
+		for (int i = id & mask; ; i = (i + 1) & mask) {
+			Symbol sym = symbolTable[i];
+			if (sym == null || sym.id == id)
+				return sym;
+		}
 	}
 	
 	public void put(Symbol sym) {
-		symbolTable.put(sym.name, sym);
+		int mask = symbolTable.length - 1;
+		int i = sym.id & mask;
+		while (symbolTable[i] != null && symbolTable[i].id != sym.id)
+			i = (i + 1) & mask;
+		if (symbolTable[i] == null)
+			size++;
+		symbolTable[i] = sym;
+
+		// keep at least half of the slots free
+		if (size * 2 > symbolTable.length)
+			grow();
+	}
+
+	private void grow() {
+		Symbol[] old = symbolTable;
+		symbolTable = new Symbol[old.length * 2];
+		int mask = symbolTable.length - 1;
+		for (Symbol sym : old) {
+			if (sym == null)
+				continue;
+			int i = sym.id & mask;
+			while (symbolTable[i] != null)
+				i = (i + 1) & mask;
+			symbolTable[i] = sym;
+		}
 	}
 
 	public Scope getOuter() {
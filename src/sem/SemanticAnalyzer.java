@@ -1,8 +1,22 @@
 package sem;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import ast.FunDecl;
+import ast.StructTypeDecl;
+import ast.VarDecl;
+import util.PassTimer;
 
 public class SemanticAnalyzer {
+
+	private PassTimer timer = PassTimer.NONE;
+
+	public void setTimer(PassTimer timer) {
+		this.timer = timer;
+	}
 	
 	public int analyze(ast.Program prog) {
 		// List of visitors
@@ -15,11 +29,119 @@ public class SemanticAnalyzer {
 		
 		// Apply each visitor to the AST
 		for (SemanticVisitor v : visitors) {
+			timer.start(v instanceof NameAnalysisVisitor ? "name analysis" : "type checking");
 			prog.accept(v);
 			errors += v.getErrorCount();
 		}
 		
+		timer.stop();
 		// Return the number of errors.
 		return errors;
 	}
+
+	public int analyzeParallel(ast.Program prog) {
+		return analyzeParallel(prog, ForkJoinPool.commonPool());
+	}
+
+	/*
+	 * Same checks and the same messages in the same order as analyze, but once
+	 * the global scope is built each function body is name analysed and type
+	 * checked on its own task. Messages are collected per function and printed
+	 * at the end: name analysis first, then type checking, each in source order.
+	 */
+	public int analyzeParallel(ast.Program prog, ForkJoinPool pool) {
+		timer.start("semantic analysis");
+		List<String> globalNames = new ArrayList<>();
+		NameAnalysisVisitor globals = new NameAnalysisVisitor();
+		globals.setMessageSink(globalNames);
+		globals.declareGlobals(prog);
+		globals.declareFunctions(prog);
+
+		List<ForkJoinTask<FunctionCheck>> tasks = new ArrayList<>();
+		int order = 0;
+		for (FunDecl fd : prog.funDecls) {
+			FunctionCheck check = new FunctionCheck(globals, fd, order++);
+			tasks.add(pool.submit(check, check));
+		}
+		List<FunctionCheck> checks = new ArrayList<>();
+		for (ForkJoinTask<FunctionCheck> task : tasks) {
+			checks.add(task.join());
+		}
+
+		List<String> mainMessage = new ArrayList<>();
+		globals.setMessageSink(mainMessage);
+		globals.findMain(prog);
+
+		List<String> globalTypes = new ArrayList<>();
+		TypeCheckVisitor types = new TypeCheckVisitor();
+		types.setMessageSink(globalTypes);
+		for (StructTypeDecl std : prog.structTypeDecls) {
+			std.accept(types);
+		}
+		for (VarDecl vd : prog.varDecls) {
+			vd.accept(types);
+		}
+
+		// a function that crashed its checks stops the output where a sequential run would have
+		int errors = globals.getErrorCount() + types.getErrorCount();
+		print(globalNames);
+		for (FunctionCheck check : checks) {
+			print(check.nameMessages);
+			if (check.failure != null && check.failedNaming)
+				throw check.failure;
+			errors += check.names.getErrorCount();
+		}
+		print(mainMessage);
+		print(globalTypes);
+		for (FunctionCheck check : checks) {
+			print(check.typeMessages);
+			if (check.failure != null)
+				throw check.failure;
+			errors += check.types.getErrorCount();
+		}
+
+		timer.stop();
+		return errors;
+	}
+
+	private static void print(List<String> messages) {
+		for (String m : messages) {
+			System.err.println(m);
+		}
+	}
+
+	// name analysis then type checking of one function body
+	private static class FunctionCheck implements Runnable {
+		final NameAnalysisVisitor names;
+		final TypeCheckVisitor types = new TypeCheckVisitor();
+		final List<String> nameMessages = new ArrayList<>();
+		final List<String> typeMessages = new ArrayList<>();
+		RuntimeException failure;
+		boolean failedNaming;
+		private final FunDecl fd;
+		private final int order;
+
+		FunctionCheck(NameAnalysisVisitor globals, FunDecl fd, int order) {
+			this.names = new NameAnalysisVisitor(globals);
+			this.fd = fd;
+			this.order = order;
+			names.setMessageSink(nameMessages);
+			types.setMessageSink(typeMessages);
+		}
+
+		public void run() {
+			try {
+				names.visitFunction(fd, order);
+			} catch (RuntimeException e) {
+				failure = e;
+				failedNaming = true;
+				return;
+			}
+			try {
+				fd.accept(types);
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+	}
 }
@@ -7,7 +7,7 @@ public class StructSymbol extends Symbol {
     public StructTypeDecl std;
 
     public StructSymbol(StructTypeDecl std) {
-        super(std.st.structType);
+        super(std.st.structType, std.st.id);
         this.std = std;
     }
 
@@ -2,9 +2,11 @@ package sem;
 
 public abstract class Symbol {
 	public String name;
+	public int id; // interned name
 	
-	public Symbol(String name) {
+	public Symbol(String name, int id) {
 		this.name = name;
+		this.id = id;
 	}
 
 	public boolean isVar() { return false; };
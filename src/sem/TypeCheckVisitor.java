@@ -181,7 +181,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 			StructType s = ((StructType) fae.struct.type);
 			try {
 				// point to start of field in this struct
-				fae.totalOffset = s.getFieldOffset(fae.field); // offset of field in this struct (end marker + offset), minus
+				fae.totalOffset = s.getFieldOffset(fae.fieldId); // offset of field in this struct (end marker + offset), minus
 				if (Expr.isFieldAccessExpr(fae.struct)) {
 					FieldAccessExpr prev = (FieldAccessExpr) fae.struct;
 					// "complete" offset in this particular struct is:
@@ -190,7 +190,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 					fae.totalOffset += prev.totalOffset - s.size;				  
 				}
 				// get the type of this vardecl in structdecl
-				return s.std.getFieldType(fae.field);
+				return s.std.getFieldType(fae.fieldId);
 			} catch (Exception e) {
 				// field does not exist... something's wrong
 			}
@@ -7,7 +7,7 @@ public class VarSymbol extends Symbol {
     public final VarDecl vd;
 
     public VarSymbol(VarDecl vd) {
-        super(vd.name);
+        super(vd.name, vd.id);
         this.vd = vd;
     }
     
@@ -0,0 +1,433 @@
+package sim;
+
+import gen.Instruction.Opcode;
+import sim.Program.Insn;
+import util.Position;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembles what the code generators emit: the instructions of
+ * gen.Instruction, the .data/.text/.globl/.align/.space/.asciiz/.byte/.word
+ * directives and .macro definitions, expanded textually at each use.
+ *
+ * Labels are collected while the lines are read and resolved once all of
+ * them are known.
+ *
+ * A comment of the form "# @line:column" marks the instructions after it as
+ * generated for that place in the MiniC source.
+ */
+public class Assembler {
+
+    private static final Map<String, Opcode> opcodes = new HashMap<String, Opcode>();
+    static {
+        for (Opcode op : Opcode.values()) {
+            if (op.mnemonic != null)
+                opcodes.put(op.mnemonic, op);
+        }
+    }
+
+    private static final Map<String, Integer> registers = new HashMap<String, Integer>();
+    static {
+        String[] names = {
+            "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3",
+            "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7",
+            "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7",
+            "t8", "t9", "k0", "k1", "gp", "sp", "fp", "ra"
+        };
+        for (int k = 0; k < names.length; k++) {
+            registers.put(names[k], k);
+            registers.put(String.valueOf(k), k);
+        }
+        registers.put("s8", 30);
+    }
+
+    private static class Macro {
+        final List<String> params;
+        final List<String> body = new ArrayList<String>();
+
+        Macro(List<String> params) {
+            this.params = params;
+        }
+    }
+
+    private final List<Insn> text = new ArrayList<Insn>();
+    private byte[] data = new byte[1024];
+    private int dataSize = 0;
+    private final Map<String, Integer> symbols = new LinkedHashMap<String, Integer>();
+    private final Map<String, Macro> macros = new HashMap<String, Macro>();
+
+    private boolean inText = true;
+    private Macro defining = null;
+    private int line = 0;
+    private Position source = null;
+
+    public static Program assemble(File file) throws IOException {
+        try (Reader in = new FileReader(file)) {
+            return assemble(in);
+        }
+    }
+
+    public static Program assemble(Reader source) throws IOException {
+        Assembler a = new Assembler();
+        BufferedReader in = new BufferedReader(source);
+        for (String s = in.readLine(); s != null; s = in.readLine()) {
+            a.line++;
+            a.line(s);
+        }
+        return a.finish();
+    }
+
+    private Program finish() {
+        if (defining != null)
+            throw new SimulationException(line, "missing .end_macro");
+
+        Insn[] code = text.toArray(new Insn[0]);
+        for (Insn i : code) {
+            if (i.symbol == null)
+                continue;
+            Integer address = symbols.get(i.symbol);
+            if (address == null)
+                throw new SimulationException(i.line, "undefined label '" + i.symbol + "'");
+            switch (i.op) {
+                case LA: case LW: case LB: case SW: case SB:
+                    i.imm += address;
+                    break;
+                default:
+                    i.target = Program.index(address);
+                    break;
+            }
+        }
+
+        // MARS starts at main when there is one
+        Integer main = symbols.get("main");
+        int entry = main != null ? Program.index(main) : 0;
+        return new Program(code, data, dataSize, symbols, entry);
+    }
+
+    // ------------------- lines ---------------
+
+    private void line(String s) {
+        String code = stripComment(s);
+        if (code.length() < s.length())
+            marker(s.substring(code.length() + 1).trim());
+        s = code.trim();
+
+        if (defining != null) {
+            if (s.startsWith(".end_macro"))
+                defining = null;
+            else
+                defining.body.add(s);
+            return;
+        }
+
+        // labels, possibly followed by something on the same line
+        int colon;
+        while ((colon = labelEnd(s)) > 0) {
+            define(s.substring(0, colon).trim());
+            s = s.substring(colon + 1).trim();
+        }
+        if (s.isEmpty())
+            return;
+
+        if (s.charAt(0) == '.') {
+            directive(s);
+            return;
+        }
+
+        int end = 0;
+        while (end < s.length() && !Character.isWhitespace(s.charAt(end)) && s.charAt(end) != '(')
+            end++;
+        String name = s.substring(0, end);
+        String rest = s.substring(end).trim();
+
+        Macro m = macros.get(name);
+        if (m != null) {
+            expand(name, m, rest);
+        } else {
+            instruction(name, rest);
+        }
+    }
+
+    private static String stripComment(String s) {
+        boolean quoted = false;
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            if (c == '\\' && quoted) {
+                k++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '#' && !quoted) {
+                return s.substring(0, k);
+            }
+        }
+        return s;
+    }
+
+    private void marker(String comment) {
+        int colon = comment.indexOf(':');
+        if (!comment.startsWith("@") || colon < 0)
+            return;
+        try {
+            source = new Position(Integer.parseInt(comment.substring(1, colon)), Integer.parseInt(comment.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            // an ordinary comment that happens to start with @
+        }
+    }
+
+    // index of the colon ending a leading label, -1 if the line does not start with one
+    private static int labelEnd(String s) {
+        int k = 0;
+        while (k < s.length() && isLabelChar(s.charAt(k)))
+            k++;
+        return k > 0 && k < s.length() && s.charAt(k) == ':' ? k : -1;
+    }
+
+    private static boolean isLabelChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$';
+    }
+
+    private void define(String label) {
+        if (symbols.containsKey(label))
+            throw new SimulationException(line, "label '" + label + "' defined twice");
+        symbols.put(label, inText ? Program.address(text.size()) : Program.DATA_BASE + dataSize);
+    }
+
+    private void expand(String name, Macro m, String rest) {
+        List<String> args = new ArrayList<String>();
+        if (rest.startsWith("(") && rest.endsWith(")"))
+            rest = rest.substring(1, rest.length() - 1);
+        if (!rest.trim().isEmpty())
+            args = operands(rest);
+        if (args.size() != m.params.size())
+            throw new SimulationException(line, "macro '" + name + "' takes " + m.params.size() + " arguments");
+
+        for (String body : m.body) {
+            for (int k = 0; k < args.size(); k++)
+                body = body.replace(m.params.get(k), args.get(k));
+            line(body);
+        }
+    }
+
+    // ------------------- directives ---------------
+
+    private void directive(String s) {
+        int end = 0;
+        while (end < s.length() && !Character.isWhitespace(s.charAt(end)))
+            end++;
+        String name = s.substring(0, end);
+        String rest = s.substring(end).trim();
+
+        switch (name) {
+            case ".data": inText = false; return;
+            case ".text": inText = true; return;
+            case ".globl": case ".global": return;
+            case ".macro": {
+                int paren = rest.indexOf('(');
+                String macro = (paren < 0 ? rest : rest.substring(0, paren)).trim();
+                List<String> params = new ArrayList<String>();
+                if (paren >= 0)
+                    params = operands(rest.substring(paren + 1, rest.lastIndexOf(')')));
+                defining = new Macro(params);
+                macros.put(macro, defining);
+                return;
+            }
+            default: break;
+        }
+
+        if (inText)
+            throw new SimulationException(line, name + " outside the data segment");
+        switch (name) {
+            case ".align": {
+                int alignment = 1 << immediate(rest);
+                while (dataSize % alignment != 0)
+                    emit(0);
+                break;
+            }
+            case ".space":
+                for (int n = immediate(rest); n > 0; n--)
+                    emit(0);
+                break;
+            case ".ascii":
+            case ".asciiz":
+                for (char c : string(rest).toCharArray())
+                    emit(c);
+                if (name.equals(".asciiz"))
+                    emit(0);
+                break;
+            case ".byte":
+                for (String v : operands(rest))
+                    emit(immediate(v));
+                break;
+            case ".word":
+                while (dataSize % 4 != 0)
+                    emit(0);
+                for (String v : operands(rest)) {
+                    int w = immediate(v);
+                    for (int k = 0; k < 4; k++)
+                        emit(w >> (8 * k));
+                }
+                break;
+            default:
+                throw new SimulationException(line, "unknown directive " + name);
+        }
+    }
+
+    private void emit(int b) {
+        if (dataSize == data.length)
+            data = Arrays.copyOf(data, 2 * data.length);
+        data[dataSize++] = (byte) b;
+    }
+
+    private String string(String s) {
+        if (s.length() < 2 || s.charAt(0) != '"' || s.charAt(s.length() - 1) != '"')
+            throw new SimulationException(line, "expected a string: " + s);
+        StringBuilder sb = new StringBuilder();
+        for (int k = 1; k < s.length() - 1; k++) {
+            char c = s.charAt(k);
+            if (c == '\\' && k + 1 < s.length() - 1) {
+                char e = s.charAt(++k);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case '0': sb.append('\0'); break;
+                    case '"': case '\'': case '\\': sb.append(e); break;
+                    default : sb.append(c).append(e); break;
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // ------------------- instructions ---------------
+
+    private void instruction(String name, String rest) {
+        Opcode op = opcodes.get(name);
+        if (op == null)
+            throw new SimulationException(line, "unknown instruction '" + name + "'");
+        if (!inText)
+            throw new SimulationException(line, "instruction in the data segment");
+
+        Insn i = new Insn(op, line);
+        i.source = source;
+        List<String> ops = rest.isEmpty() ? new ArrayList<String>() : operands(rest);
+        switch (op) {
+            case SYSCALL:
+                count(ops, 0);
+                break;
+            case J: case JAL:
+                count(ops, 1);
+                i.symbol = ops.get(0);
+                break;
+            case JR:
+                count(ops, 1);
+                i.rs = register(ops.get(0));
+                break;
+            case MOVE:
+                count(ops, 2);
+                i.rd = register(ops.get(0));
+                i.rs = register(ops.get(1));
+                break;
+            case LI:
+                count(ops, 2);
+                i.rd = register(ops.get(0));
+                i.imm = immediate(ops.get(1));
+                break;
+            case BEQ: case BNE: case BLT: case BLE: case BGT: case BGE:
+                count(ops, 3);
+                i.rs = register(ops.get(0));
+                registerOrImmediate(i, ops.get(1));
+                i.symbol = ops.get(2);
+                break;
+            case LA: case LW: case LB: case SW: case SB:
+                count(ops, 2);
+                i.rd = register(ops.get(0));
+                address(i, ops.get(1));
+                break;
+            default:
+                // arithmetic, shifts and comparisons: rd, rs, rt or immediate
+                count(ops, 3);
+                i.rd = register(ops.get(0));
+                i.rs = register(ops.get(1));
+                registerOrImmediate(i, ops.get(2));
+                break;
+        }
+        text.add(i);
+    }
+
+    private void count(List<String> ops, int n) {
+        if (ops.size() != n)
+            throw new SimulationException(line, "expected " + n + " operands, found " + ops.size());
+    }
+
+    private static List<String> operands(String s) {
+        List<String> ops = new ArrayList<String>();
+        for (String o : s.split(","))
+            ops.add(o.trim());
+        return ops;
+    }
+
+    private int register(String s) {
+        Integer r = s.startsWith("$") ? registers.get(s.substring(1)) : null;
+        if (r == null)
+            throw new SimulationException(line, "not a register: '" + s + "'");
+        return r;
+    }
+
+    private void registerOrImmediate(Insn i, String s) {
+        if (s.startsWith("$"))
+            i.rt = register(s);
+        else
+            i.imm = immediate(s);
+    }
+
+    private int immediate(String s) {
+        if (s.length() == 3 && s.charAt(0) == '\'' && s.charAt(2) == '\'')
+            return s.charAt(1);
+        try {
+            return (int) (long) Long.decode(s);
+        } catch (NumberFormatException e) {
+            throw new SimulationException(line, "not a number: '" + s + "'");
+        }
+    }
+
+    // offset(base), (base), label, label+offset, label(base) or an absolute offset
+    private void address(Insn i, String s) {
+        String prefix = s;
+        int paren = s.indexOf('(');
+        if (paren >= 0) {
+            int close = s.indexOf(')', paren);
+            if (close < 0)
+                throw new SimulationException(line, "bad address '" + s + "'");
+            i.rs = register(s.substring(paren + 1, close).trim());
+            prefix = s.substring(0, paren).trim();
+        }
+        if (prefix.isEmpty())
+            return;
+
+        char c = prefix.charAt(0);
+        if (Character.isDigit(c) || c == '-' || c == '+') {
+            i.imm = immediate(prefix);
+            return;
+        }
+        int sign = Math.max(prefix.indexOf('+'), prefix.indexOf('-'));
+        if (sign > 0) {
+            i.imm = immediate(prefix.substring(sign));
+            prefix = prefix.substring(0, sign).trim();
+        }
+        i.symbol = prefix;
+    }
+}
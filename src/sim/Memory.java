@@ -0,0 +1,72 @@
+package sim;
+
+import java.util.HashMap;
+
+/**
+ * Byte addressed, little-endian memory, as in MARS. Pages are created the
+ * first time they are touched and read as zeroes until written.
+ */
+public class Memory {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+    // 128 MB, beyond that it is a runaway stack or heap
+    private static final int MAX_PAGES = 1 << 15;
+
+    private final HashMap<Integer, byte[]> pages = new HashMap<Integer, byte[]>();
+
+    // most accesses hit the same page as the one before
+    private int lastNumber = -1;
+    private byte[] last;
+
+    private byte[] page(int address) {
+        int number = address >>> PAGE_BITS;
+        if (number != lastNumber) {
+            byte[] p = pages.get(number);
+            if (p == null) {
+                if (pages.size() == MAX_PAGES)
+                    throw new SimulationException(0, String.format("out of memory at 0x%08x", address));
+                p = new byte[1 << PAGE_BITS];
+                pages.put(number, p);
+            }
+            lastNumber = number;
+            last = p;
+        }
+        return last;
+    }
+
+    private static void checkAligned(int address, int line) {
+        if ((address & 3) != 0)
+            throw new SimulationException(line, String.format("address 0x%08x is not word aligned", address));
+    }
+
+    public int loadWord(int address, int line) {
+        checkAligned(address, line);
+        byte[] p = page(address);
+        int k = address & PAGE_MASK;
+        return (p[k] & 0xff) | (p[k + 1] & 0xff) << 8 | (p[k + 2] & 0xff) << 16 | p[k + 3] << 24;
+    }
+
+    public void storeWord(int address, int value, int line) {
+        checkAligned(address, line);
+        byte[] p = page(address);
+        int k = address & PAGE_MASK;
+        p[k] = (byte) value;
+        p[k + 1] = (byte) (value >> 8);
+        p[k + 2] = (byte) (value >> 16);
+        p[k + 3] = (byte) (value >> 24);
+    }
+
+    public byte loadByte(int address) {
+        return page(address)[address & PAGE_MASK];
+    }
+
+    public void storeByte(int address, int value) {
+        page(address)[address & PAGE_MASK] = (byte) value;
+    }
+
+    public void store(int address, byte[] bytes, int length) {
+        for (int k = 0; k < length; k++)
+            storeByte(address + k, bytes[k]);
+    }
+}
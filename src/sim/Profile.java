@@ -0,0 +1,272 @@
+package sim;
+
+import gen.Instruction.Opcode;
+import sim.Program.Insn;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * What a run cost: instructions executed by class, cycles under a simple cost
+ * model, and both broken down by function, basic block and MiniC source line.
+ * Written as JSON so that runs under different compiler versions can be
+ * compared by a script.
+ *
+ * Functions start at the entry point and at every jal target and run up to
+ * the next one. Basic blocks start at labels, branch targets and after
+ * every jump or branch.
+ */
+public class Profile {
+
+    public enum Kind { ALU, LOAD, STORE, BRANCH, SYSCALL }
+
+    public static Kind kind(Opcode op) {
+        switch (op) {
+            case LW: case LB:
+                return Kind.LOAD;
+            case SW: case SB:
+                return Kind.STORE;
+            case BEQ: case BNE: case BLT: case BLE: case BGT: case BGE:
+            case J: case JAL: case JR:
+                return Kind.BRANCH;
+            case SYSCALL:
+                return Kind.SYSCALL;
+            default:
+                return Kind.ALU;
+        }
+    }
+
+    /*
+     * Cycles for one execution, a single-issue pipeline with a slow multiplier
+     * and divider (R3000 latencies): a load stalls the next instruction once,
+     * and a jump or taken branch costs one more cycle to refetch.
+     */
+    public static final int TAKEN_PENALTY = 1;
+
+    public static int cycles(Opcode op) {
+        switch (op) {
+            case MUL:
+                return 12;
+            case DIV: case REM:
+                return 35;
+            case LW: case LB:
+                return 2;
+            case J: case JAL: case JR:
+                return 1 + TAKEN_PENALTY;
+            case SYSCALL:
+                return 10;
+            default:
+                return 1;
+        }
+    }
+
+    private static class Range {
+        final String name;
+        final int start;
+        final int end;
+        final String function;
+
+        Range(String name, int start, int end, String function) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.function = function;
+        }
+    }
+
+    private final Program program;
+    private final long[] executed;
+    private final long[] taken;
+    private final String[] labels;
+
+    private long instructions = 0;
+    private long cycles = 0;
+    private long takenBranches = 0;
+    private final long[] byKind = new long[Kind.values().length];
+
+    Profile(Program program, long[] executed, long[] taken) {
+        this.program = program;
+        this.executed = executed;
+        this.taken = taken;
+
+        // the first label at each instruction
+        labels = new String[program.text.length + 1];
+        for (Map.Entry<String, Integer> e : program.symbols.entrySet()) {
+            int k = Program.index(e.getValue());
+            if (e.getValue() >= Program.TEXT_BASE && e.getValue() < Program.DATA_BASE && k <= program.text.length && labels[k] == null)
+                labels[k] = e.getKey();
+        }
+
+        for (int k = 0; k < executed.length; k++) {
+            instructions += executed[k];
+            cycles += cycles(k);
+            takenBranches += taken[k];
+            byKind[kind(program.text[k].op).ordinal()] += executed[k];
+        }
+    }
+
+    public long instructions() {
+        return instructions;
+    }
+
+    public long cycles() {
+        return cycles;
+    }
+
+    public long count(Kind kind) {
+        return byKind[kind.ordinal()];
+    }
+
+    // cycles spent on instruction k
+    private long cycles(int k) {
+        return executed[k] * cycles(program.text[k].op) + taken[k] * TAKEN_PENALTY;
+    }
+
+    private String source(int start, int end) {
+        for (int k = start; k < end; k++) {
+            if (program.text[k].source != null)
+                return program.text[k].source.toString();
+        }
+        return null;
+    }
+
+    private List<Range> functions() {
+        TreeSet<Integer> starts = new TreeSet<Integer>();
+        starts.add(program.entry);
+        for (Insn i : program.text) {
+            if (i.op == Opcode.JAL)
+                starts.add(i.target);
+        }
+        return ranges(starts, null);
+    }
+
+    private List<Range> blocks(List<Range> functions) {
+        TreeSet<Integer> starts = new TreeSet<Integer>();
+        starts.add(0);
+        for (int k = 0; k < program.text.length; k++) {
+            if (labels[k] != null)
+                starts.add(k);
+            if (kind(program.text[k].op) == Kind.BRANCH) {
+                starts.add(k + 1);
+                if (program.text[k].target >= 0)
+                    starts.add(program.text[k].target);
+            }
+        }
+        for (Range f : functions)
+            starts.add(f.start);
+        return ranges(starts, functions);
+    }
+
+    // consecutive ranges between the starts, named after their function when there are any
+    private List<Range> ranges(TreeSet<Integer> starts, List<Range> functions) {
+        List<Range> ranges = new ArrayList<Range>();
+        int f = -1;
+        for (int start : starts) {
+            if (start >= program.text.length)
+                break;
+            Integer next = starts.higher(start);
+            int end = next == null ? program.text.length : Math.min(next, program.text.length);
+            String function = null;
+            if (functions != null) {
+                while (f + 1 < functions.size() && functions.get(f + 1).start <= start)
+                    f++;
+                function = f >= 0 ? functions.get(f).name : null;
+            }
+            String name = labels[start] != null ? labels[start] : String.format("0x%08x", Program.address(start));
+            ranges.add(new Range(name, start, end, function));
+        }
+        return ranges;
+    }
+
+    // ------------------- output ---------------
+
+    public void writeJson(PrintWriter out) {
+        out.println("{");
+        out.println("  \"instructions\": " + instructions + ",");
+        out.println("  \"cycles\": " + cycles + ",");
+        out.print("  \"classes\": {");
+        for (Kind k : Kind.values()) {
+            out.print((k.ordinal() > 0 ? ", " : "") + quote(k.name().toLowerCase()) + ": " + byKind[k.ordinal()]);
+        }
+        out.println("},");
+        out.println("  \"takenBranches\": " + takenBranches + ",");
+
+        List<Range> functions = functions();
+        out.println("  \"functions\": [");
+        for (int n = 0; n < functions.size(); n++) {
+            Range f = functions.get(n);
+            out.print("    {\"name\": " + quote(f.name) + ", \"source\": " + quote(source(f.start, f.end))
+                + ", \"calls\": " + executed[f.start]);
+            totals(out, f);
+            out.println("}" + (n + 1 < functions.size() ? "," : ""));
+        }
+        out.println("  ],");
+
+        // only blocks that ran, there are many
+        List<Range> blocks = new ArrayList<Range>();
+        for (Range b : blocks(functions)) {
+            if (executed[b.start] > 0)
+                blocks.add(b);
+        }
+        out.println("  \"blocks\": [");
+        for (int n = 0; n < blocks.size(); n++) {
+            Range b = blocks.get(n);
+            out.print("    {\"function\": " + quote(b.function) + ", \"label\": " + quote(b.name)
+                + ", \"asmLine\": " + program.text[b.start].line + ", \"source\": " + quote(source(b.start, b.end))
+                + ", \"executions\": " + executed[b.start]);
+            totals(out, b);
+            out.println("}" + (n + 1 < blocks.size() ? "," : ""));
+        }
+        out.println("  ],");
+
+        TreeMap<Integer, long[]> lines = new TreeMap<Integer, long[]>();
+        for (int k = 0; k < program.text.length; k++) {
+            if (program.text[k].source == null || executed[k] == 0)
+                continue;
+            long[] line = lines.get(program.text[k].source.line);
+            if (line == null) {
+                line = new long[2];
+                lines.put(program.text[k].source.line, line);
+            }
+            line[0] += executed[k];
+            line[1] += cycles(k);
+        }
+        out.println("  \"lines\": [");
+        int n = 0;
+        for (Map.Entry<Integer, long[]> e : lines.entrySet()) {
+            out.print("    {\"line\": " + e.getKey() + ", \"instructions\": " + e.getValue()[0] + ", \"cycles\": " + e.getValue()[1] + "}");
+            out.println(++n < lines.size() ? "," : "");
+        }
+        out.println("  ]");
+        out.println("}");
+        out.flush();
+    }
+
+    private void totals(PrintWriter out, Range r) {
+        long count = 0, cost = 0;
+        for (int k = r.start; k < r.end; k++) {
+            count += executed[k];
+            cost += cycles(k);
+        }
+        out.print(", \"instructions\": " + count + ", \"cycles\": " + cost);
+    }
+
+    private static String quote(String s) {
+        if (s == null)
+            return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,66 @@
+package sim;
+
+import gen.Instruction.Opcode;
+import util.Position;
+
+import java.util.Map;
+
+/**
+ * An assembled program: decoded instructions, the initial contents of the
+ * data segment and where every label ended up. Addresses follow the MARS
+ * default memory layout, so programs see the same pointers they would there.
+ */
+public class Program {
+
+    public static final int TEXT_BASE = 0x00400000;
+    public static final int DATA_BASE = 0x10010000;
+    public static final int HEAP_BASE = 0x10040000;
+    public static final int GLOBAL_POINTER = 0x10008000;
+    public static final int STACK_POINTER = 0x7fffeffc;
+
+    /*
+     * One instruction with its operands resolved. Registers are numbers, -1
+     * where there is none: an instruction without rt takes imm instead.
+     * Branches and jumps have the index of their target in target, loads,
+     * stores and la add imm and the register base, if any.
+     */
+    public static final class Insn {
+        public final Opcode op;
+        public final int line;      // in the assembly source
+        public Position source;     // in the MiniC source, when the code generator said
+        public int rd = -1;
+        public int rs = -1;
+        public int rt = -1;
+        public int imm;
+        public int target = -1;
+        String symbol;              // label operand until it is resolved
+
+        Insn(Opcode op, int line) {
+            this.op = op;
+            this.line = line;
+        }
+    }
+
+    public final Insn[] text;
+    public final byte[] data;
+    public final int dataSize;
+    public final Map<String, Integer> symbols;
+    // index of the first instruction to execute
+    public final int entry;
+
+    Program(Insn[] text, byte[] data, int dataSize, Map<String, Integer> symbols, int entry) {
+        this.text = text;
+        this.data = data;
+        this.dataSize = dataSize;
+        this.symbols = symbols;
+        this.entry = entry;
+    }
+
+    public static int address(int index) {
+        return TEXT_BASE + 4 * index;
+    }
+
+    public static int index(int address) {
+        return (address - TEXT_BASE) >> 2;
+    }
+}
@@ -0,0 +1,17 @@
+package sim;
+
+/**
+ * Assembly that cannot be assembled, or a program that failed while running.
+ */
+public class SimulationException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    // source line of the offending instruction or directive, 0 when unknown
+    public final int line;
+
+    public SimulationException(int line, String message) {
+        super(line > 0 ? "line " + line + ": " + message : message);
+        this.line = line;
+    }
+}
@@ -0,0 +1,239 @@
+package sim;
+
+import sim.Program.Insn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/**
+ * Runs an assembled program the way MARS does for the code we generate:
+ * pseudo-instructions are executed directly, add, addi and sub trap on
+ * overflow and division by zero is an error. Syscalls 1, 4, 5, 9, 10, 11,
+ * 12 and 17 behave as in MARS.
+ *
+ * The program ends with an exit syscall or by running off the end of the
+ * text segment.
+ */
+public class Simulator {
+
+    private static final int V0 = 2, A0 = 4, GP = 28, SP = 29, RA = 31;
+
+    private final Program program;
+    private final BufferedReader in;
+    private final PrintStream out;
+
+    private final int[] reg = new int[32];
+    private final Memory memory = new Memory();
+    private int heap = Program.HEAP_BASE;
+
+    private long steps = 0;
+    private long stepLimit = Long.MAX_VALUE;
+
+    // per instruction: how often it was executed, and for branches how often taken
+    private final long[] executed;
+    private final long[] taken;
+
+    public Simulator(Program program, InputStream in, PrintStream out) {
+        this.program = program;
+        this.in = new BufferedReader(new InputStreamReader(in));
+        this.out = out;
+        this.executed = new long[program.text.length];
+        this.taken = new long[program.text.length];
+
+        memory.store(Program.DATA_BASE, program.data, program.dataSize);
+        reg[GP] = Program.GLOBAL_POINTER;
+        reg[SP] = Program.STACK_POINTER;
+    }
+
+    // instructions executed so far
+    public long steps() {
+        return steps;
+    }
+
+    // what has been executed so far
+    public Profile profile() {
+        return new Profile(program, executed, taken);
+    }
+
+    // stops runaway programs, which then fail with a SimulationException
+    public void setStepLimit(long limit) {
+        stepLimit = limit;
+    }
+
+    /**
+     * Runs the program to the end, returns its exit code: 0 unless it ended
+     * with syscall 17. Throws SimulationException if it goes wrong.
+     */
+    public int run() {
+        try {
+            return execute();
+        } finally {
+            out.flush();
+        }
+    }
+
+    private int execute() {
+        final Insn[] text = program.text;
+        final int[] r = reg;
+        int pc = program.entry;
+
+        while (true) {
+            if (pc == text.length)
+                return 0;   // dropped off the bottom
+            if (pc < 0 || pc > text.length)
+                throw new SimulationException(0, String.format("jump to 0x%08x, outside the program", Program.address(pc)));
+            if (++steps > stepLimit)
+                throw new SimulationException(text[pc].line, "more than " + stepLimit + " instructions executed");
+
+            executed[pc]++;
+            Insn i = text[pc++];
+            int b = i.rt >= 0 ? r[i.rt] : i.imm;
+            switch (i.op) {
+                case ADD:
+                case ADDI: {
+                    int a = r[i.rs], s = a + b;
+                    if (((a ^ s) & (b ^ s)) < 0)
+                        throw overflow(i);
+                    r[i.rd] = s;
+                    break;
+                }
+                case SUB: {
+                    int a = r[i.rs], s = a - b;
+                    if (((a ^ b) & (a ^ s)) < 0)
+                        throw overflow(i);
+                    r[i.rd] = s;
+                    break;
+                }
+                case ADDU: r[i.rd] = r[i.rs] + b; break;
+                case SUBU: r[i.rd] = r[i.rs] - b; break;
+                case MUL:  r[i.rd] = r[i.rs] * b; break;
+                case DIV:
+                    if (b == 0)
+                        throw new SimulationException(i.line, "division by zero");
+                    r[i.rd] = r[i.rs] / b;
+                    break;
+                case REM:
+                    if (b == 0)
+                        throw new SimulationException(i.line, "division by zero");
+                    r[i.rd] = r[i.rs] % b;
+                    break;
+                case SLL: r[i.rd] = r[i.rs] << b; break;
+                case SRA: r[i.rd] = r[i.rs] >> b; break;
+                case SRL: r[i.rd] = r[i.rs] >>> b; break;
+                case SEQ: r[i.rd] = r[i.rs] == b ? 1 : 0; break;
+                case SNE: r[i.rd] = r[i.rs] != b ? 1 : 0; break;
+                case SLT: r[i.rd] = r[i.rs] <  b ? 1 : 0; break;
+                case SLE: r[i.rd] = r[i.rs] <= b ? 1 : 0; break;
+                case SGT: r[i.rd] = r[i.rs] >  b ? 1 : 0; break;
+                case SGE: r[i.rd] = r[i.rs] >= b ? 1 : 0; break;
+                case BEQ: if (r[i.rs] == b) pc = branch(pc); break;
+                case BNE: if (r[i.rs] != b) pc = branch(pc); break;
+                case BLT: if (r[i.rs] <  b) pc = branch(pc); break;
+                case BLE: if (r[i.rs] <= b) pc = branch(pc); break;
+                case BGT: if (r[i.rs] >  b) pc = branch(pc); break;
+                case BGE: if (r[i.rs] >= b) pc = branch(pc); break;
+                case J:   pc = i.target; break;
+                case JAL:
+                    r[RA] = Program.address(pc);
+                    pc = i.target;
+                    break;
+                case JR:  pc = Program.index(r[i.rs]); break;
+                case LA:  r[i.rd] = address(i); break;
+                case LW:  r[i.rd] = memory.loadWord(address(i), i.line); break;
+                case LB:  r[i.rd] = memory.loadByte(address(i)); break;
+                case SW:  memory.storeWord(address(i), r[i.rd], i.line); break;
+                case SB:  memory.storeByte(address(i), r[i.rd]); break;
+                case LI:  r[i.rd] = i.imm; break;
+                case MOVE: r[i.rd] = r[i.rs]; break;
+                case SYSCALL: {
+                    int code = r[V0];
+                    if (code == 10)
+                        return 0;
+                    if (code == 17)
+                        return r[A0];
+                    syscall(code, i);
+                    break;
+                }
+                default:
+                    throw new SimulationException(i.line, "cannot execute " + i.op);
+            }
+            r[0] = 0;
+        }
+    }
+
+    // the taken branch is the instruction before pc
+    private int branch(int pc) {
+        taken[pc - 1]++;
+        return program.text[pc - 1].target;
+    }
+
+    private int address(Insn i) {
+        return i.rs >= 0 ? reg[i.rs] + i.imm : i.imm;
+    }
+
+    private static SimulationException overflow(Insn i) {
+        return new SimulationException(i.line, "arithmetic overflow");
+    }
+
+    private void syscall(int code, Insn i) {
+        switch (code) {
+            case 1:
+                out.print(reg[A0]);
+                break;
+            case 4:
+                for (int a = reg[A0]; ; a++) {
+                    byte c = memory.loadByte(a);
+                    if (c == 0)
+                        break;
+                    out.print((char) (c & 0xff));
+                }
+                break;
+            case 5: {
+                String s = readLine(i);
+                try {
+                    reg[V0] = Integer.parseInt(s.trim());
+                } catch (NumberFormatException e) {
+                    throw new SimulationException(i.line, "invalid integer input '" + s + "'");
+                }
+                break;
+            }
+            case 9: {
+                int size = reg[A0];
+                if (size < 0)
+                    throw new SimulationException(i.line, "negative sbrk size " + size);
+                reg[V0] = heap;
+                // the heap stays word aligned
+                heap += (size + 3) & ~3;
+                break;
+            }
+            case 11:
+                out.print((char) (reg[A0] & 0xff));
+                break;
+            case 12: {
+                // a whole line is read, as in MARS, and its first character kept
+                String s = readLine(i);
+                if (s.isEmpty())
+                    throw new SimulationException(i.line, "invalid char input");
+                reg[V0] = s.charAt(0);
+                break;
+            }
+            default:
+                throw new SimulationException(i.line, "unknown syscall " + code);
+        }
+    }
+
+    private String readLine(Insn i) {
+        out.flush();
+        try {
+            String s = in.readLine();
+            if (s == null)
+                throw new SimulationException(i.line, "end of input");
+            return s;
+        } catch (IOException e) {
+            throw new SimulationException(i.line, "cannot read input: " + e.getMessage());
+        }
+    }
+}
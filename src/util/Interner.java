@@ -0,0 +1,123 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Compilation-wide identifier table.
+ *
+ * Every distinct identifier is assigned a dense int id the first time the
+ * tokeniser sees it, and all later phases compare ids instead of strings.
+ * Each name is stored as a single String shared by every node that uses it.
+ */
+public class Interner {
+
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int size = 0;
+
+    // open addressing: slot -> id + 1, 0 marks an empty slot
+    private int[] slots = new int[512];
+
+    public int size() {
+        return size;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int intern(String s) {
+        int h = hash(s);
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0)
+                return add(s, h, i);
+            if (hashes[slot - 1] == h && names[slot - 1].equals(s))
+                return slot - 1;
+        }
+    }
+
+    // interns buf[start, start+len) without allocating unless the name is new
+    public int intern(char[] buf, int start, int len) {
+        int h = hash(buf, start, len);
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0)
+                return add(new String(buf, start, len), h, i);
+            if (hashes[slot - 1] == h && matches(names[slot - 1], buf, start, len))
+                return slot - 1;
+        }
+    }
+
+    // returns the id of s, or -1 if it has never been interned
+    public int lookup(String s) {
+        int h = hash(s);
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0)
+                return -1;
+            if (hashes[slot - 1] == h && names[slot - 1].equals(s))
+                return slot - 1;
+        }
+    }
+
+    private int add(String s, int h, int slot) {
+        int id = size++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = s;
+        hashes[id] = h;
+        slots[slot] = id + 1;
+
+        // keep the load factor at or below one half
+        if (size * 2 > slots.length)
+            rehash();
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = id + 1;
+        }
+    }
+
+    private static boolean matches(String s, char[] buf, int start, int len) {
+        if (s.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != buf[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++)
+            h = 31 * h + s.charAt(i);
+        return mix(h);
+    }
+
+    private static int hash(char[] buf, int start, int len) {
+        int h = 0;
+        for (int i = start; i < start + len; i++)
+            h = 31 * h + buf[i];
+        return mix(h);
+    }
+
+    // spread the low bits, which are the only ones the table looks at
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,177 @@
+package util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wall time, CPU time and bytes allocated for each pass of one compile, and
+ * counts of what the passes produced. Passes run one after the other: start
+ * ends the pass before. CPU time and allocation come from the ThreadMXBean
+ * and cover the calling thread only, so work a pass hands to other threads
+ * shows in its wall time alone. Either is -1 where the JVM cannot measure it.
+ *
+ * NONE ignores everything, it is what the passes see when nobody asked.
+ */
+public class PassTimer {
+
+    public static final PassTimer NONE = new PassTimer(false);
+
+    public static final class Pass {
+        public final String name;
+        public long wallNanos;
+        public long cpuNanos;
+        public long allocatedBytes;
+
+        Pass(String name) {
+            this.name = name;
+        }
+    }
+
+    private final boolean enabled;
+    private final ThreadMXBean threads;
+    private final com.sun.management.ThreadMXBean allocation;
+
+    private final List<Pass> passes = new ArrayList<Pass>();
+    private final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+    // the running pass and where its counters stood when it started
+    private Pass current;
+    private long wallStart, cpuStart, allocatedStart;
+
+    public PassTimer() {
+        this(true);
+    }
+
+    private PassTimer(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            threads = null;
+            allocation = null;
+            return;
+        }
+
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx.isCurrentThreadCpuTimeSupported()) {
+            if (!mx.isThreadCpuTimeEnabled())
+                mx.setThreadCpuTimeEnabled(true);
+            threads = mx;
+        } else
+            threads = null;
+
+        com.sun.management.ThreadMXBean a = null;
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            a = (com.sun.management.ThreadMXBean) mx;
+            if (!a.isThreadAllocatedMemorySupported())
+                a = null;
+            else if (!a.isThreadAllocatedMemoryEnabled())
+                a.setThreadAllocatedMemoryEnabled(true);
+        }
+        allocation = a;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // ends the running pass, if any, and times the next one
+    public void start(String pass) {
+        if (!enabled)
+            return;
+        stop();
+        current = new Pass(pass);
+        passes.add(current);
+        allocatedStart = allocated();
+        cpuStart = cpu();
+        wallStart = System.nanoTime();
+    }
+
+    public void stop() {
+        if (current == null)
+            return;
+        current.wallNanos = System.nanoTime() - wallStart;
+        long cpu = cpu(), allocated = allocated();
+        current.cpuNanos = cpu < 0 ? -1 : cpu - cpuStart;
+        current.allocatedBytes = allocated < 0 ? -1 : allocated - allocatedStart;
+        current = null;
+    }
+
+    // records how many of something a pass produced, tokens or instructions say
+    public void count(String what, long n) {
+        if (enabled)
+            counts.put(what, n);
+    }
+
+    public List<Pass> passes() {
+        return passes;
+    }
+
+    public Map<String, Long> counts() {
+        return counts;
+    }
+
+    private long cpu() {
+        return threads == null ? -1 : threads.getCurrentThreadCpuTime();
+    }
+
+    private long allocated() {
+        return allocation == null ? -1 : allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // the passes added up, -1 stays -1
+    private Pass total() {
+        Pass total = new Pass("total");
+        for (Pass p : passes) {
+            total.wallNanos += p.wallNanos;
+            total.cpuNanos = p.cpuNanos < 0 || total.cpuNanos < 0 ? -1 : total.cpuNanos + p.cpuNanos;
+            total.allocatedBytes = p.allocatedBytes < 0 || total.allocatedBytes < 0 ? -1 : total.allocatedBytes + p.allocatedBytes;
+        }
+        return total;
+    }
+
+    // ------------------- output ---------------
+
+    public void report(PrintStream out) {
+        stop();
+        out.printf("%-22s %10s %10s %12s%n", "pass", "wall ms", "cpu ms", "allocated KB");
+        for (Pass p : passes)
+            report(out, p);
+        report(out, total());
+        for (Map.Entry<String, Long> e : counts.entrySet())
+            out.printf("%-22s %10d%n", e.getKey(), e.getValue());
+        out.flush();
+    }
+
+    private static void report(PrintStream out, Pass p) {
+        out.printf("%-22s %10.3f %10s %12s%n", p.name, p.wallNanos / 1e6,
+            p.cpuNanos < 0 ? "-" : String.format("%.3f", p.cpuNanos / 1e6),
+            p.allocatedBytes < 0 ? "-" : String.valueOf((p.allocatedBytes + 1023) / 1024));
+    }
+
+    public void writeJson(PrintWriter out) {
+        stop();
+        out.println("{");
+        out.println("  \"passes\": [");
+        for (int n = 0; n < passes.size(); n++)
+            out.println("    " + json(passes.get(n)) + (n + 1 < passes.size() ? "," : ""));
+        out.println("  ],");
+        out.println("  \"total\": " + json(total()) + ",");
+        out.print("  \"counts\": {");
+        int n = 0;
+        for (Map.Entry<String, Long> e : counts.entrySet())
+            out.print((n++ > 0 ? ", " : "") + "\"" + e.getKey() + "\": " + e.getValue());
+        out.println("}");
+        out.println("}");
+        out.flush();
+    }
+
+    private static String json(Pass p) {
+        return "{\"name\": \"" + p.name + "\", \"wallNanos\": " + p.wallNanos + ", \"cpuNanos\": " + p.cpuNanos
+            + ", \"allocatedBytes\": " + p.allocatedBytes + "}";
+    }
+}
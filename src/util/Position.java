@@ -6,8 +6,8 @@ package util;
  */
 public class Position {
 
-    final int line;
-    final int column;
+    public final int line;
+    public final int column;
 
     public Position(int line, int column) {
         this.line = line;
@@ -65,10 +65,10 @@ def run_tests(mode, tests, logfile):
     return failures
 
 
-def compile_all(tests):
+def compile_all(tests, flags):
     errors = 0
     for (f, c, inp, real) in tests:
-        proc = subprocess.run(['java', '-cp', 'bin', 'Main', '-gen', f'tests/gen/{f}', f'tests/gen/asm/{f[:(f.index("."))]}.asm'])
+        proc = subprocess.run(['java', '-cp', 'bin', 'Main', *flags, '-gen', f'tests/gen/{f}', f'tests/gen/asm/{f[:(f.index("."))]}.asm'])
         # all files should compile!
         if(proc.returncode != 0):
             print(f"'{f}' failed to compile!");
@@ -81,6 +81,11 @@ if __name__ == "__main__":
     modes = [
         "gen",
     ]
+    # the IR backend is experimental, it runs the same tests so the two do not drift apart
+    backends = [
+        ("", []),
+        (" -ir", ["-ir"]),
+    ]
     dir_path = os.path.dirname(os.path.realpath(__file__))
 
     now = datetime.datetime.now()
@@ -99,11 +104,12 @@ if __name__ == "__main__":
                     f, c, inp, real = l.split(',')
                     tests.append([f, codes[c.strip()], inp.strip().split(';'), real.strip()])
 
-        if compile_all(tests) > 0:
-            exit()
+        for (name, flags) in backends:
+            if compile_all(tests, flags) > 0:
+                exit()
 
-        global_tests += len(tests)
-        global_fails += run_tests(mode, tests, logfile=logfile)
+            global_tests += len(tests)
+            global_fails += run_tests(mode + name, tests, logfile=logfile)
     
     logging.info("_______________________________________________________\n")
     logging.info(f" => all tests completed!")
@@ -18,12 +18,38 @@ codes = {
 test_result = ["FAIL", ""]
 
 
+class CompileServer:
+    """ one `Main -server` for all the tests, so the JVM starts once """
+
+    def __init__(self):
+        self.proc = subprocess.Popen(['java', '-cp', 'bin', 'Main', '-server'],
+                                     stdin=subprocess.PIPE, stdout=subprocess.PIPE)
+
+    def compile(self, *args):
+        """ returns (exit code, stdout bytes, stderr bytes) """
+        self.proc.stdin.write((" ".join(args) + "\n").encode('ascii'))
+        self.proc.stdin.flush()
+        code, out, err = map(int, self.proc.stdout.readline().split())
+        return code, self.proc.stdout.read(out), self.proc.stdout.read(err)
+
+    def close(self):
+        self.proc.stdin.close()
+        self.proc.wait()
+
+
+server = None
+
+
 def run_test(mode, filename, expected, out="a.out", logfile="test.log"):
     with open(logfile, 'a') as f:
         f.write(f"[{expected:3d}] {filename} \n"), f.flush()
-        code = subprocess.run(['java', '-cp', 'bin', 'Main',
-                               f'-{mode}', f'tests/{filename}', f'{filename}-dump'],
-                               stdout=f, stderr=f).returncode
+        args = [f'-{mode}', f'tests/{filename}', f'{filename}-dump']
+        if server:
+            code, stdout, stderr = server.compile(*args)
+            f.write((stdout + stderr).decode('ascii', 'replace')), f.flush()
+        else:
+            code = subprocess.run(['java', '-cp', 'bin', 'Main'] + args,
+                                  stdout=f, stderr=f).returncode
         # print(f"{filename}: ({expected}) => {code}")
         f.write(f"[{code:3d}] ----------------------------")
         f.write(2 * "\n")
@@ -66,6 +92,8 @@ if __name__ == "__main__":
     global_tests = 0
     global_fails = 0
 
+    server = CompileServer()
+
     for mode in modes:
         tests = []
         file = os.path.join(dir_path, f"{mode}-{filename}")
@@ -78,6 +106,8 @@ if __name__ == "__main__":
 
         global_tests += len(tests)
         global_fails += run_tests(mode, tests, logfile=logfile)
+
+    server.close()
     
     logging.info("_______________________________________________________\n")
     logging.info(f" => all tests completed!")
@@ -0,0 +1,17 @@
+int sq(int x) {
+    return x * x;
+}
+
+int id(int x) {
+    return x;
+}
+
+void main () {
+    print_i(sq(2) + sq(3));
+    print_c(';');
+    if (sq(2) == sq(2) - id(0)) {
+        print_i(1);
+    }
+    print_c(';');
+    print_i(sq(id(1) + id(2)) - sq(id(3) - id(1)));
+}
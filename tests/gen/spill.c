@@ -0,0 +1,50 @@
+struct pair {
+    int x;
+    int y;
+};
+
+int arr[8];
+
+// more arguments than registers, one of them a struct passed on the stack
+int sum(int a1, int a2, int a3, int a4, int a5, int a6, int a7, int a8, int a9, struct pair q,
+        int a11, int a12, int a13, int a14, int a15, int a16, int a17, int a18, int a19, int a20) {
+    return a1 + a2 + a3 + a4 + a5 + a6 + a7 + a8 + a9 + q.x * q.y + a11 + a12 + a13 + a14 + a15
+        + a16 + a17 + a18 + a19 + a20;
+}
+
+// the parameters take four registers for the whole body
+int deep(int a, int b, int c, int d) {
+    return (1 + (b + (c + (4 + (a + (b + (7 + (d + (a + (10 + (c + (d + (13 + (b + (c + (16 + (a + (b + (19 + (d + (a + (22 + (c + d)))))))))))))))))))))));
+}
+
+void main () {
+    int x1;
+    int x2;
+    int x3;
+    int r;
+    struct pair p;
+
+    x1 = 96;
+    x2 = 89;
+    x3 = 7;
+    p.x = 3;
+    p.y = 4;
+
+    // each one nests deeper than there are registers
+    print_i(deep(1, 2, 3, 4));
+    print_c(';');
+    r = (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - x1)))))))))))))))))))));
+    print_i(r);
+    print_c(';');
+    if ((x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - x1))))))))))))))))))))) < 0) {
+        print_i(1);
+    }
+    print_c(';');
+    arr[2] = 5;
+    arr[x3] = (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - (x1 - (x2 - (x3 - x1))))))))))))))))))))) + arr[(x1 - (x2 + (x3 + (x1 - (x2 + (x3 + (x1 - (x2 + (x3 + (x1 - (x2 + (x3 + (x1 - (x2 + (x3 + (x1 - (x2 + (x3 + (x1 - (x2 + x3)))))))))))))))))))) + 2];
+    print_i(arr[x3]);
+    print_c(';');
+    print_i(sum(1, 2, 3, 4, 5, p.x, 7, 8, 9, p, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20));
+    print_c(';');
+    print_i(sum(x3, deep(1, x3, 2, 1), x3, deep(3, x3, 2, 1), x3, deep(5, x3, 2, 1), x3, deep(7, x3, 2, 1), x3, p, x3, deep(11, x3, 2, 1), x3, deep(13, x3, 2, 1), x3, deep(15, x3, 2, 1), x3, deep(17, x3, 2, 1), x3, deep(19, x3, 2, 1)));
+}
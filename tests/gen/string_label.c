@@ -0,0 +1,11 @@
+int str_0;
+int str_1;
+
+void main () {
+    str_0 = 5;
+    str_1 = 6;
+    print_s((char*) "hi;");
+    print_i(str_0);
+    print_s((char*) ";");
+    print_i(str_1);
+}
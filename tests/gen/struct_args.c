@@ -0,0 +1,28 @@
+struct p { int a; int b; int c; };
+struct q { int v; };
+struct p gp;
+
+int sp(struct p q, int x) {
+    return q.a * 100 + q.b * 10 + q.c + x - x;
+}
+
+int two(int a, struct p l, struct p r, int b, int c, int d, int e) {
+    return a + l.a * 100 + l.b * 10 + l.c + r.a * 100000 + r.b * 10000 + r.c * 1000 + b + c + d + e;
+}
+
+int one(struct q s) {
+    return s.v;
+}
+
+void main() {
+    struct p l;
+    struct q w;
+    l.a = 1; l.b = 0; l.c = 6;
+    gp.a = 7; gp.b = 8; gp.c = 9;
+    w.v = 42;
+    print_i(sp(l, 3));
+    print_c(';');
+    print_i(two(1, l, gp, 2, 3, 4, sp(gp, 5)));
+    print_c(';');
+    print_i(one(w));
+}